@@ -0,0 +1,227 @@
+package com.androidpositive.celllayout;
+
+/**
+ * An immutable snapshot of the cell positions of all items in a {@link CellLayout}.
+ * <p>
+ * Item positions are packed into small fixed size chunks of ints, which are referenced from fixed size pages. A
+ * snapshot derived from another one via {@link Editor} copies only the chunks it modifies and the pages referencing
+ * them, and shares every other page and chunk with its origin, so a long chain of snapshots costs little more than
+ * the tiles that actually moved.
+ */
+public final class Arrangement {
+    static final int CHUNK_SHIFT = 4;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final int PAGE_SHIFT = 6;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Number of ints stored per item: left, top, width and height in cells, then the owner.
+     */
+    static final int STRIDE = 5;
+
+    /**
+     * Approximate heap footprint of a single chunk, array header included.
+     */
+    static final int CHUNK_BYTES = 16 + CHUNK_SIZE * STRIDE * 4;
+
+    /**
+     * Approximate heap footprint of a single page of chunk references, array header included.
+     */
+    static final int PAGE_BYTES = 16 + PAGE_SIZE * 4;
+
+    public static final Arrangement EMPTY = new Arrangement(new int[0][][], 0);
+
+    /**
+     * Chunk {@code c} is {@code pages[c >> PAGE_SHIFT][c & PAGE_MASK]}; trailing chunks of the last page are null.
+     */
+    final int[][][] pages;
+    final int size;
+
+    Arrangement(int[][][] pages, int size) {
+        this.pages = pages;
+        this.size = size;
+    }
+
+    /**
+     * @return number of items stored in this snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getLeft(int item) {
+        return get(item, 0);
+    }
+
+    public int getTop(int item) {
+        return get(item, 1);
+    }
+
+    public int getCellsWidth(int item) {
+        return get(item, 2);
+    }
+
+    public int getCellsHeight(int item) {
+        return get(item, 3);
+    }
+
+    /**
+     * @return the generation of the view that held the item's slot when the position was stored, 0 if none did.
+     *         Slots of removed views are reused, so a position only applies to the view of the same generation.
+     */
+    public int getOwner(int item) {
+        return get(item, 4);
+    }
+
+    private int get(int item, int field) {
+        if (item < 0 || item >= size) {
+            throw new IndexOutOfBoundsException("item " + item + " of " + size);
+        }
+        int chunk = item >> CHUNK_SHIFT;
+        return pages[chunk >> PAGE_SHIFT][chunk & PAGE_MASK][(item & CHUNK_MASK) * STRIDE + field];
+    }
+
+    /**
+     * @return approximate number of bytes retained by the page table of this snapshot, pages and chunks excluded.
+     */
+    int spineBytes() {
+        return 16 + pages.length * 4;
+    }
+
+    /**
+     * @return approximate number of bytes of the pages and chunks of this snapshot that are not shared with the
+     *         origin, or of all of them if the origin is null.
+     */
+    int bytesNotIn(Arrangement origin) {
+        int bytes = 0;
+        for (int p = 0; p < pages.length; p++) {
+            int[][] page = pages[p];
+            int[][] originPage = origin != null && p < origin.pages.length ? origin.pages[p] : null;
+            if (page == originPage) {
+                continue;
+            }
+            bytes += PAGE_BYTES;
+            for (int c = 0; c < PAGE_SIZE; c++) {
+                if (page[c] != null && (originPage == null || page[c] != originPage[c])) {
+                    bytes += CHUNK_BYTES;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return a copy-on-write editor starting from this snapshot.
+     */
+    public Editor edit() {
+        return new Editor(this);
+    }
+
+    /**
+     * Builds a new {@link Arrangement} from an existing one, copying a chunk and its page only on the first write into
+     * them.
+     */
+    public static final class Editor {
+        private int[][][] pages;
+        private boolean[] ownedPages;
+        private boolean[] ownedChunks;
+        private int size;
+        private boolean modified;
+
+        Editor(Arrangement origin) {
+            pages = origin.pages.clone();
+            ownedPages = new boolean[pages.length];
+            ownedChunks = new boolean[pages.length << PAGE_SHIFT];
+            size = origin.size;
+        }
+
+        /**
+         * Stores a position for the given item. Writing the value that is already stored leaves the chunk shared.
+         */
+        public Editor set(int item, int owner, int left, int top, int width, int height) {
+            if (item < 0) {
+                throw new IndexOutOfBoundsException("item " + item);
+            }
+            if (item >= size) {
+                grow(item + 1);
+            }
+            int chunkIndex = item >> CHUNK_SHIFT;
+            int pageIndex = chunkIndex >> PAGE_SHIFT;
+            int offset = (item & CHUNK_MASK) * STRIDE;
+            int[] chunk = pages[pageIndex][chunkIndex & PAGE_MASK];
+            if (chunk[offset] == left && chunk[offset + 1] == top && chunk[offset + 2] == width && chunk[offset + 3] == height
+                    && chunk[offset + 4] == owner) {
+                return this;
+            }
+            if (!ownedChunks[chunkIndex]) {
+                int[][] page = pages[pageIndex];
+                if (!ownedPages[pageIndex]) {
+                    page = page.clone();
+                    pages[pageIndex] = page;
+                    ownedPages[pageIndex] = true;
+                }
+                chunk = chunk.clone();
+                page[chunkIndex & PAGE_MASK] = chunk;
+                ownedChunks[chunkIndex] = true;
+            }
+            chunk[offset] = left;
+            chunk[offset + 1] = top;
+            chunk[offset + 2] = width;
+            chunk[offset + 3] = height;
+            chunk[offset + 4] = owner;
+            modified = true;
+            return this;
+        }
+
+        private void grow(int newSize) {
+            int chunkCount = (newSize + CHUNK_MASK) >> CHUNK_SHIFT;
+            int pageCount = (chunkCount + PAGE_MASK) >> PAGE_SHIFT;
+            if (pageCount > pages.length) {
+                int[][][] newPages = new int[pageCount][][];
+                System.arraycopy(pages, 0, newPages, 0, pages.length);
+                boolean[] newOwnedPages = new boolean[pageCount];
+                System.arraycopy(ownedPages, 0, newOwnedPages, 0, ownedPages.length);
+                boolean[] newOwnedChunks = new boolean[pageCount << PAGE_SHIFT];
+                System.arraycopy(ownedChunks, 0, newOwnedChunks, 0, ownedChunks.length);
+                for (int p = pages.length; p < pageCount; p++) {
+                    newPages[p] = new int[PAGE_SIZE][];
+                    newOwnedPages[p] = true;
+                }
+                pages = newPages;
+                ownedPages = newOwnedPages;
+                ownedChunks = newOwnedChunks;
+            }
+            for (int c = (size + CHUNK_MASK) >> CHUNK_SHIFT; c < chunkCount; c++) {
+                int pageIndex = c >> PAGE_SHIFT;
+                if (!ownedPages[pageIndex]) {
+                    pages[pageIndex] = pages[pageIndex].clone();
+                    ownedPages[pageIndex] = true;
+                }
+                pages[pageIndex][c & PAGE_MASK] = new int[CHUNK_SIZE * STRIDE];
+                ownedChunks[c] = true;
+            }
+            size = newSize;
+            modified = true;
+        }
+
+        /**
+         * @return true if any item differs from the origin snapshot.
+         */
+        public boolean isModified() {
+            return modified;
+        }
+
+        public Arrangement build() {
+            Arrangement arrangement = new Arrangement(pages, size);
+            // the built snapshot must never be written to again
+            pages = pages.clone();
+            ownedPages = new boolean[pages.length];
+            ownedChunks = new boolean[pages.length << PAGE_SHIFT];
+            modified = false;
+            return arrangement;
+        }
+    }
+}
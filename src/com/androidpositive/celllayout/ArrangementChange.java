@@ -0,0 +1,105 @@
+package com.androidpositive.celllayout;
+
+/**
+ * A single item change reported by {@link CellLayout.OnArrangementChangeListener}. Positions are in cells.
+ */
+public final class ArrangementChange {
+
+    public static final int ADDED = 0;
+    public static final int MOVED = 1;
+    public static final int RESIZED = 2;
+    public static final int REMOVED = 3;
+
+    private final int type;
+    private final int item;
+    private final int id;
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+
+    ArrangementChange(int type, int item, int id, int left, int top, int width, int height) {
+        this.type = type;
+        this.item = item;
+        this.id = id;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return one of {@link #ADDED}, {@link #MOVED}, {@link #RESIZED} or {@link #REMOVED}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return slot of the item in its layout, stable for as long as the view stays in that layout.
+     */
+    public int getItem() {
+        return item;
+    }
+
+    /**
+     * @return id of the child view or {@link android.view.View#NO_ID}.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getCellsWidth() {
+        return width;
+    }
+
+    public int getCellsHeight() {
+        return height;
+    }
+
+    /**
+     * Slots of removed views are reused for new views, so a change following a removal, or a change carrying another
+     * view id, is about a different tile and has to be reported separately.
+     * 
+     * @return true if both changes are about the same tile and may be merged.
+     */
+    static boolean canMerge(ArrangementChange older, ArrangementChange newer) {
+        return older.type != REMOVED && older.id == newer.id;
+    }
+
+    /**
+     * Combines two consecutive changes of the same tile into one, see {@link #canMerge}.
+     * 
+     * @return the combined change or null if the changes cancel each other out.
+     */
+    static ArrangementChange merge(ArrangementChange older, ArrangementChange newer) {
+        int type;
+        if (older.type == ADDED) {
+            if (newer.type == REMOVED) {
+                return null;
+            }
+            type = ADDED;
+        } else if (newer.type == REMOVED) {
+            type = REMOVED;
+        } else if (older.type == RESIZED || newer.type == RESIZED) {
+            type = RESIZED;
+        } else {
+            type = MOVED;
+        }
+        return new ArrangementChange(type, newer.item, newer.id, newer.left, newer.top, newer.width, newer.height);
+    }
+
+    @Override
+    public String toString() {
+        String[] names = { "ADDED", "MOVED", "RESIZED", "REMOVED" };
+        return names[type] + " item=" + item + " id=" + id + " [" + left + "," + top + " " + width + "x" + height + "]";
+    }
+}
@@ -0,0 +1,142 @@
+package com.androidpositive.celllayout;
+
+import java.util.ArrayList;
+
+/**
+ * A linear undo/redo history of {@link Arrangement} snapshots.
+ * <p>
+ * Memory is accounted per snapshot as the pages and chunks it introduced plus its own page table. Once the total exceeds
+ * the configured limit the oldest snapshots are evicted first; the current snapshot is never evicted.
+ */
+public class ArrangementHistory {
+    /**
+     * Default memory limit in bytes.
+     */
+    public static final int DEFAULT_MEMORY_LIMIT = 512 * 1024;
+
+    private static class Entry {
+        final Arrangement state;
+        int bytes;
+
+        Entry(Arrangement state, int bytes) {
+            this.state = state;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ArrayList<Entry> entries = new ArrayList<Entry>();
+
+    private int current = -1;
+
+    private int memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    private int retainedBytes;
+
+    /**
+     * Appends a snapshot after the current one, discarding every snapshot that could have been redone.
+     */
+    public void push(Arrangement state) {
+        while (entries.size() > current + 1) {
+            retainedBytes -= entries.remove(entries.size() - 1).bytes;
+        }
+        Arrangement previous = current >= 0 ? entries.get(current).state : null;
+        int bytes = state.spineBytes() + state.bytesNotIn(previous);
+        entries.add(new Entry(state, bytes));
+        retainedBytes += bytes;
+        current = entries.size() - 1;
+        trim();
+    }
+
+    /**
+     * @return the current snapshot or {@link Arrangement#EMPTY} if nothing was recorded yet.
+     */
+    public Arrangement current() {
+        return current >= 0 ? entries.get(current).state : Arrangement.EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public boolean canUndo() {
+        return current > 0;
+    }
+
+    public boolean canRedo() {
+        return current < entries.size() - 1;
+    }
+
+    /**
+     * @return the snapshot to restore or null if there is nothing to undo.
+     */
+    public Arrangement undo() {
+        return canUndo() ? jumpTo(current - 1) : null;
+    }
+
+    /**
+     * @return the snapshot to restore or null if there is nothing to redo.
+     */
+    public Arrangement redo() {
+        return canRedo() ? jumpTo(current + 1) : null;
+    }
+
+    /**
+     * Makes the snapshot at the given index current without discarding any other snapshot.
+     */
+    public Arrangement jumpTo(int index) {
+        if (index < 0 || index >= entries.size()) {
+            throw new IndexOutOfBoundsException("snapshot " + index + " of " + entries.size());
+        }
+        current = index;
+        return entries.get(index).state;
+    }
+
+    /**
+     * @return number of snapshots currently kept.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCurrentIndex() {
+        return current;
+    }
+
+    public Arrangement get(int index) {
+        return entries.get(index).state;
+    }
+
+    public void clear() {
+        entries.clear();
+        current = -1;
+        retainedBytes = 0;
+    }
+
+    /**
+     * @return approximate number of bytes retained by all kept snapshots.
+     */
+    public int getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public int getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(int bytes) {
+        memoryLimit = bytes;
+        trim();
+    }
+
+    private void trim() {
+        while (retainedBytes > memoryLimit && current > 0) {
+            Entry evicted = entries.remove(0);
+            Entry oldest = entries.get(0);
+            // pages and chunks the evicted snapshot introduced and the new oldest one still shares stay alive
+            int inherited = oldest.state.bytesNotIn(null) - oldest.state.bytesNotIn(evicted.state);
+            oldest.bytes += inherited;
+            retainedBytes += inherited - evicted.bytes;
+            current--;
+        }
+    }
+}
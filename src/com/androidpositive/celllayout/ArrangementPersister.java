@@ -0,0 +1,127 @@
+package com.androidpositive.celllayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.SparseArray;
+
+/**
+ * An {@link CellLayout.OnArrangementChangeListener} that persists changes on a background thread.
+ * <p>
+ * Batches arriving within {@link #setDebounceDelay(long)} of each other are merged per item, so a burst of drops
+ * results in a single {@link Writer#write(List)} call that contains only the final state of every changed item.
+ * Changes are keyed by item slot, so use one persister per layout. A slot taken over by another tile within the
+ * delay results in separate changes for both tiles.
+ */
+public class ArrangementPersister implements CellLayout.OnArrangementChangeListener {
+
+    /**
+     * Stores change deltas, e.g. in a database. Always called on the persister's background thread.
+     */
+    public interface Writer {
+        void write(List<ArrangementChange> changes);
+    }
+
+    public static final long DEFAULT_DEBOUNCE_DELAY = 500;
+
+    private final Writer writer;
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    private final Object lock = new Object();
+
+    /**
+     * Changes waiting for the next write, keyed by item. Guarded by {@link #lock}.
+     */
+    private final SparseArray<ArrangementChange> pending = new SparseArray<ArrangementChange>();
+
+    /**
+     * Changes of tiles whose slot was taken over by another tile, written first. Guarded by {@link #lock}.
+     */
+    private final ArrayList<ArrangementChange> replaced = new ArrayList<ArrangementChange>();
+
+    private long debounceDelay = DEFAULT_DEBOUNCE_DELAY;
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    public ArrangementPersister(Writer writer) {
+        this.writer = writer;
+        thread = new HandlerThread(CellLayout.T + "Persister", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public void setDebounceDelay(long millis) {
+        debounceDelay = millis;
+    }
+
+    @Override
+    public void onArrangementChanged(List<ArrangementChange> changes) {
+        synchronized (lock) {
+            for (int i = 0; i < changes.size(); i++) {
+                ArrangementChange change = changes.get(i);
+                ArrangementChange older = pending.get(change.getItem());
+                if (older == null) {
+                    pending.put(change.getItem(), change);
+                } else if (!ArrangementChange.canMerge(older, change)) {
+                    replaced.add(older);
+                    pending.put(change.getItem(), change);
+                } else {
+                    ArrangementChange merged = ArrangementChange.merge(older, change);
+                    if (merged == null) {
+                        pending.remove(change.getItem());
+                    } else {
+                        pending.put(change.getItem(), merged);
+                    }
+                }
+            }
+        }
+        handler.removeCallbacks(writeRunnable);
+        handler.postDelayed(writeRunnable, debounceDelay);
+    }
+
+    /**
+     * Writes pending changes without waiting for the debounce delay. The write still happens on the background thread.
+     */
+    public void flush() {
+        handler.removeCallbacks(writeRunnable);
+        handler.post(writeRunnable);
+    }
+
+    /**
+     * Writes pending changes and stops the background thread once done.
+     */
+    public void quit() {
+        flush();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                thread.quit();
+            }
+        });
+    }
+
+    private void writePending() {
+        ArrayList<ArrangementChange> changes;
+        synchronized (lock) {
+            if (pending.size() == 0 && replaced.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<ArrangementChange>(replaced);
+            for (int i = 0; i < pending.size(); i++) {
+                changes.add(pending.valueAt(i));
+            }
+            pending.clear();
+            replaced.clear();
+        }
+        writer.write(changes);
+    }
+}
@@ -0,0 +1,127 @@
+package com.androidpositive.celllayout;
+
+import java.util.Arrays;
+
+import android.view.View;
+
+/**
+ * An immutable copy of the cell positions of all children of a {@link CellLayout}, keyed by child ID, as returned by
+ * {@link CellLayout#captureArrangement()}.
+ * <p>
+ * Entries are kept in the order of the layout's item slots in a single packed int array. Children without an ID are
+ * matched by their item slot, which unlike the child index does not change when children are reordered, e.g. when a
+ * dragged child is brought to the front.
+ */
+public final class ArrangementSnapshot {
+    /**
+     * Number of ints stored per entry: left, top, width and height in cells.
+     */
+    static final int STRIDE = 4;
+
+    private final int[] ids;
+    private final int[] cells;
+
+    /**
+     * Item slot per entry, ascending.
+     */
+    private final int[] items;
+
+    /**
+     * Entry indexes ordered by ID, for the binary search in {@link #indexOfId(int)}.
+     */
+    private final int[] byId;
+
+    ArrangementSnapshot(int[] ids, int[] items, int[] cells) {
+        this.ids = ids;
+        this.items = items;
+        this.cells = cells;
+        byId = sortById(ids);
+    }
+
+    /**
+     * @return number of children stored in this snapshot.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return ID of the child stored at the given entry or {@link View#NO_ID}.
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getLeft(int index) {
+        return cells[index * STRIDE];
+    }
+
+    public int getTop(int index) {
+        return cells[index * STRIDE + 1];
+    }
+
+    public int getCellsWidth(int index) {
+        return cells[index * STRIDE + 2];
+    }
+
+    public int getCellsHeight(int index) {
+        return cells[index * STRIDE + 3];
+    }
+
+    /**
+     * @return the entry of the child with the given ID or -1 if there is none.
+     */
+    public int indexOfId(int id) {
+        if (id == View.NO_ID) {
+            return -1;
+        }
+        int low = 0;
+        int high = byId.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = ids[byId[mid]];
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return byId[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the entry to restore the child with the given ID and item slot from, or -1 if there is none.
+     */
+    int find(int id, int item) {
+        if (id != View.NO_ID) {
+            return indexOfId(id);
+        }
+        int index = Arrays.binarySearch(items, item);
+        return index >= 0 && ids[index] == View.NO_ID ? index : -1;
+    }
+
+    private static int[] sortById(int[] ids) {
+        int count = 0;
+        for (int id : ids) {
+            if (id != View.NO_ID) {
+                count++;
+            }
+        }
+        // (id, index) pairs packed into longs sort by id first
+        long[] keys = new long[count];
+        int k = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != View.NO_ID) {
+                keys[k++] = ((long) ids[i] << 32) | i;
+            }
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (k = 0; k < count; k++) {
+            order[k] = (int) keys[k];
+        }
+        return order;
+    }
+}
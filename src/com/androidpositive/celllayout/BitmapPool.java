@@ -0,0 +1,65 @@
+package com.androidpositive.celllayout;
+
+import android.graphics.Bitmap;
+
+/**
+ * A small pool of ARGB bitmaps reused across drags. A pooled bitmap is handed out for any request it is large
+ * enough for, so callers must only use the requested area of it.
+ */
+class BitmapPool {
+    private final Bitmap[] bitmaps;
+    private int count;
+
+    BitmapPool(int capacity) {
+        bitmaps = new Bitmap[capacity];
+    }
+
+    /**
+     * @return a bitmap of at least the given size, its content is undefined.
+     */
+    Bitmap obtain(int width, int height) {
+        for (int i = 0; i < count; i++) {
+            Bitmap bitmap = bitmaps[i];
+            if (bitmap.getWidth() >= width && bitmap.getHeight() >= height) {
+                bitmaps[i] = bitmaps[--count];
+                bitmaps[count] = null;
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a bitmap to the pool, recycling the smallest pooled bitmap if the pool is full.
+     */
+    void release(Bitmap bitmap) {
+        if (count < bitmaps.length) {
+            bitmaps[count++] = bitmap;
+            return;
+        }
+        int smallest = 0;
+        for (int i = 1; i < count; i++) {
+            if (area(bitmaps[i]) < area(bitmaps[smallest])) {
+                smallest = i;
+            }
+        }
+        if (area(bitmap) > area(bitmaps[smallest])) {
+            bitmaps[smallest].recycle();
+            bitmaps[smallest] = bitmap;
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < count; i++) {
+            bitmaps[i].recycle();
+            bitmaps[i] = null;
+        }
+        count = 0;
+    }
+
+    private static int area(Bitmap bitmap) {
+        return bitmap.getWidth() * bitmap.getHeight();
+    }
+}
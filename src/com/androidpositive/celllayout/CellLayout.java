@@ -1,18 +1,29 @@
 package com.androidpositive.celllayout;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.util.TypedValue;
+import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.View.OnLongClickListener;
-import android.view.View.OnTouchListener;
+import android.view.ViewTreeObserver;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.Animation;
 import android.view.animation.AnimationSet;
@@ -24,7 +35,7 @@ import android.view.animation.TranslateAnimation;
  * A layout manager that allows splitting parents area into evenly sized cells grid. Each child can be positioned acress one or several cells.
  *  
  */
-public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClickListener {
+public class CellLayout extends ViewGroup implements DragGestureDetector.Listener, DragInputPipeline.Listener {
     public static final String T = "CellLayout";
     /**
      * Default size in dp that will be used for a cell in case no other clues were given by parent.
@@ -33,6 +44,11 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     
     private static int ANIMATION_DURATION = 250;
 
+    /**
+     * Scale applied to the dragged tile, matching the scale animation of the live view.
+     */
+    private static final float DRAG_SCALE = 1.4f;
+
     /**
      * Number of coumns.
      */
@@ -43,8 +59,51 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
      */
     private int spacing = 0;
 
+    /*
+     * Column count and spacing configured for this grid. columns and spacing hold the values in effect, which nested
+     * grids take from their parent instead.
+     */
+    private int ownColumns = 4;
+    private int ownSpacing = 0;
+
     private float cellSize;
 
+    /**
+     * When set and the parent is a CellLayout, the grid takes cell size, spacing and column count from the parent so
+     * that its cells line up with the parent's cells.
+     */
+    private boolean nested;
+
+    /**
+     * Pixel coordinates of the grid origin, i.e. the left/top padding or, for nested grids, the parent's spacing
+     * subtracted so that the inner cells line up with the outer ones.
+     */
+    private int originX;
+    private int originY;
+
+    private int lastWidthMeasureSpec;
+    private int lastHeightMeasureSpec;
+    private boolean laidOut;
+    private boolean localLayoutPending;
+
+    private final Runnable localLayout = new Runnable() {
+        @Override
+        public void run() {
+            localLayoutPending = false;
+            if (!isLayoutRequested()) {
+                // the parent's traversal already measured and laid out this subtree
+                return;
+            }
+            if (isRelayoutBoundary()) {
+                measure(lastWidthMeasureSpec, lastHeightMeasureSpec);
+                layout(getLeft(), getTop(), getRight(), getBottom());
+                invalidate();
+            } else {
+                CellLayout.super.requestLayout();
+            }
+        }
+    };
+
     /*-------------------------*/   
     
     private SparseIntArray newPositions = new SparseIntArray();
@@ -68,6 +127,212 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
 
     private int computedRowCount;
 
+    /**
+     * Occupancy of the cells by item slot, rebuilt on every measure pass.
+     */
+    private final SparseCellGrid grid = new SparseCellGrid(columns);
+
+    /**
+     * Incremented on every layout request. A {@link LayoutPlan} is only valid for the version it was computed for.
+     */
+    private int layoutVersion;
+
+    private LayoutPlan plan;
+    private LayoutPlan sparePlan;
+
+    /**
+     * Plan published by the planner thread, taken over by the next measure or layout pass.
+     */
+    private final AtomicReference<LayoutPlan> readyPlan = new AtomicReference<LayoutPlan>();
+
+    /*
+     * Grid state as parallel arrays indexed by item slot (see LayoutParams#item). Unlike child indexes, slots do not
+     * change when children are reordered. These arrays are authoritative; LayoutParams only mirror them.
+     */
+    private View[] itemViews = new View[16];
+    private int[] cellLeft = new int[16];
+    private int[] cellTop = new int[16];
+    private int[] cellWidth = new int[16];
+    private int[] cellHeight = new int[16];
+    private boolean[] itemAttached = new boolean[16];
+    private int itemCount;
+
+    /**
+     * Params object each slot was last synced from. A child given a new object through setLayoutParams() is synced
+     * again, see syncLayoutParams().
+     */
+    private LayoutParams[] itemParams = new LayoutParams[16];
+
+    /**
+     * Generation of the view in each slot, unique across all views ever added, so that state stored per slot can tell
+     * a reused slot from the view it was stored for.
+     */
+    private int[] itemGeneration = new int[16];
+    private int nextGeneration = 1;
+
+    /**
+     * Slots of removed children, released after the next layout pass has reported the removal.
+     */
+    private int[] removedItems = new int[16];
+    private int removedItemCount;
+
+    /**
+     * Released slots available for new children. May contain stale entries, see obtainItem().
+     */
+    private int[] freeItems = new int[16];
+    private int freeItemCount;
+
+    /**
+     * Item slot per child index, rebuilt lazily after children were added, removed or reordered.
+     */
+    private int[] childItems = new int[16];
+    private boolean childItemsValid;
+
+    private OnHierarchyChangeListener onHierarchyChangeListener;
+
+    private final OnHierarchyChangeListener hierarchyTracker = new OnHierarchyChangeListener() {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            int item = ((LayoutParams) child.getLayoutParams()).item;
+            // new views get their slot right after this callback, see addView()
+            if (item >= 0 && item < itemCount && itemViews[item] == child) {
+                itemAttached[item] = true;
+            }
+            childItemsValid = false;
+            if (onHierarchyChangeListener != null) {
+                onHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            int item = itemOf(child);
+            if (item >= 0) {
+                itemAttached[item] = false;
+                removedItems = push(removedItems, removedItemCount++, item);
+            }
+            childItemsValid = false;
+            if (onHierarchyChangeListener != null) {
+                onHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    };
+
+    private final ArrangementHistory history = new ArrangementHistory();
+
+    private final TileTransition transition = new TileTransition();
+
+    private DropResolver dropResolver;
+    private long dropTimeBudgetNanos = DropResolver.DEFAULT_TIME_BUDGET_NANOS;
+    private int[] dropLeft = new int[0];
+    private int[] dropTop = new int[0];
+
+    /*
+     * Scratch buffers for permutations, indexed by child.
+     */
+    private int[] permutationLeft = new int[0];
+    private int[] permutationTop = new int[0];
+
+    private DragGestureDetector dragDetector;
+
+    private DragInputPipeline dragInput;
+
+    /**
+     * When set, the dragged tile is rendered once into a bitmap that follows the finger while the tile itself stays
+     * hidden in place until the drop.
+     */
+    private boolean dragShadowEnabled;
+
+    private final BitmapPool shadowPool = new BitmapPool(2);
+    private Bitmap dragShadow;
+    private View dragShadowView;
+    private final Rect dragShadowSource = new Rect();
+    private final Rect dragShadowBounds = new Rect();
+    private final Paint dragShadowPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Canvas dragShadowCanvas = new Canvas();
+    private int dragShadowX;
+    private int dragShadowY;
+
+    /**
+     * Receives batches of item changes, at most one per frame.
+     */
+    public interface OnArrangementChangeListener {
+        void onArrangementChanged(List<ArrangementChange> changes);
+    }
+
+    private OnArrangementChangeListener onArrangementChangeListener;
+
+    /**
+     * Positions last reported to the listener, whether each item was attached at that time and the id of its view.
+     */
+    private Arrangement reportedArrangement = Arrangement.EMPTY;
+    private boolean[] reportedAttached = new boolean[0];
+    private int[] reportedIds = new int[0];
+
+    /**
+     * Changes detected since the last dispatch, keyed by item.
+     */
+    private final SparseArray<ArrangementChange> pendingChanges = new SparseArray<ArrangementChange>();
+
+    /**
+     * Pending changes of tiles whose slot was taken over by another tile before the dispatch, reported first.
+     */
+    private final ArrayList<ArrangementChange> pendingReplaced = new ArrayList<ArrangementChange>();
+    private boolean changeDispatchPending;
+
+    /**
+     * Binds heavy tile content while the tile is inside the visible window and releases it afterwards.
+     */
+    public interface TileBinder {
+        void onBindTile(View tile);
+
+        void onUnbindTile(View tile);
+    }
+
+    private TileVisibilityTracker visibilityTracker;
+
+    private MeasureCache measureCache;
+
+    /**
+     * Number of rows above and below the visible window whose tiles are bound ahead of time.
+     */
+    private int prefetchRows = 2;
+
+    private final Paint placeholderPaint = new Paint();
+    private final Rect visibleRect = new Rect();
+    private boolean visibilityUpdatePending;
+
+    private final Runnable visibilityUpdate = new Runnable() {
+        @Override
+        public void run() {
+            visibilityUpdatePending = false;
+            updateTileVisibility();
+        }
+    };
+
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            scheduleTileVisibilityUpdate();
+        }
+    };
+
+    private final Runnable dispatchChanges = new Runnable() {
+        @Override
+        public void run() {
+            changeDispatchPending = false;
+            if (!hasPendingChanges() || onArrangementChangeListener == null) {
+                clearPendingChanges();
+                return;
+            }
+            ArrayList<ArrangementChange> changes = new ArrayList<ArrangementChange>(pendingReplaced);
+            for (int i = 0; i < pendingChanges.size(); i++) {
+                changes.add(pendingChanges.valueAt(i));
+            }
+            clearPendingChanges();
+            onArrangementChangeListener.onArrangementChanged(changes);
+        }
+    };
 
     public CellLayout(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -83,14 +348,20 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
 
     public CellLayout(Context context) {
         super(context);
+
+        init();
     }
 
     public void initAttrs(Context context, AttributeSet attrs) {
         TypedArray a = context.getTheme().obtainStyledAttributes(attrs, R.styleable.CellLayout, 0, 0);
 
         try {
-            columns = a.getInt(R.styleable.CellLayout_columns, 4);
-            spacing = a.getDimensionPixelSize(R.styleable.CellLayout_spacing, 0);
+            ownColumns = a.getInt(R.styleable.CellLayout_columns, 4);
+            ownSpacing = a.getDimensionPixelSize(R.styleable.CellLayout_spacing, 0);
+            columns = ownColumns;
+            spacing = ownSpacing;
+            nested = a.getBoolean(R.styleable.CellLayout_nested, false);
+            dragShadowEnabled = a.getBoolean(R.styleable.CellLayout_dragShadow, false);
         } finally {
             a.recycle();
         }
@@ -98,8 +369,10 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     }
 
     private void init() {
-        setOnTouchListener(this);
-        setOnLongClickListener(this);
+        super.setOnHierarchyChangeListener(hierarchyTracker);
+        dragDetector = new DragGestureDetector(this, this);
+        dragInput = new DragInputPipeline(this, this);
+        placeholderPaint.setColor(Color.LTGRAY);
     }
 
     @Override
@@ -110,77 +383,684 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
         int width = 0;
         int height = 0;
 
-        if (widthMode == MeasureSpec.AT_MOST || widthMode == MeasureSpec.EXACTLY) {
-            width = MeasureSpec.getSize(widthMeasureSpec);
-            cellSize = (float) (getMeasuredWidth() - getPaddingLeft() - getPaddingRight()) / (float) columns;
+        lastWidthMeasureSpec = widthMeasureSpec;
+        lastHeightMeasureSpec = heightMeasureSpec;
+        originX = getPaddingLeft();
+        originY = getPaddingTop();
+
+        if (inheritsCellMetrics()) {
+            CellLayout parent = (CellLayout) getParent();
+            cellSize = parent.cellSize;
+            spacing = parent.spacing;
+            columns = Math.max(1, ((LayoutParams) getLayoutParams()).width);
+            originX = -spacing;
+            originY = -spacing;
+            width = widthMode == MeasureSpec.UNSPECIFIED ? (int) (columns * cellSize) - spacing * 2 : MeasureSpec.getSize(widthMeasureSpec);
+        } else {
+            columns = ownColumns;
+            spacing = ownSpacing;
+            if (widthMode == MeasureSpec.AT_MOST || widthMode == MeasureSpec.EXACTLY) {
+                width = MeasureSpec.getSize(widthMeasureSpec);
+                // derive cells from the spec, not from the previous measured width, so a single pass is enough
+                cellSize = (float) (width - getPaddingLeft() - getPaddingRight()) / (float) columns;
+            } else {
+                cellSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_CELL_SIZE, getResources().getDisplayMetrics());
+                width = (int) (columns * cellSize);
+            }
+        }
+
+        if (grid.getColumns() != columns) {
+            grid.setColumns(columns);
         } else {
-            cellSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_CELL_SIZE, getResources().getDisplayMetrics());
-            width = (int) (columns * cellSize);
+            grid.clear();
         }
 
-        int childCount = getChildCount();
-        View child;
+        final View[] views = itemViews;
+        final boolean[] attached = itemAttached;
+        for (int i = 0; i < itemCount; i++) {
+            if (attached[i] && views[i].getLayoutParams() != itemParams[i]) {
+                syncLayoutParams(i);
+            }
+        }
+        int[] specs = currentPlan().specs;
 
-        int maxRow = 0;
+        for (int i = 0; i < itemCount; i++) {
+            if (!attached[i]) {
+                continue;
+            }
+            if (measureCache != null) {
+                measureCache.measure(views[i], specs[i * 2], specs[i * 2 + 1]);
+            } else {
+                views[i].measure(specs[i * 2], specs[i * 2 + 1]);
+            }
 
-        for (int i = 0; i < childCount; i++) {
-            child = getChildAt(i);
+            grid.add(i, cellLeft[i], cellTop[i], cellWidth[i], cellHeight[i]);
+        }
+
+        // the virtual height only depends on the bottom most occupied chunk, not on the number of rows
+        int maxRow = grid.getRowCount();
+
+        int measuredHeight;
+        if (inheritsCellMetrics()) {
+            measuredHeight = Math.round(maxRow * cellSize) - spacing * 2;
+        } else {
+            measuredHeight = Math.round(maxRow * cellSize) + getPaddingTop() + getPaddingBottom();
+        }
+        if (heightMode == MeasureSpec.EXACTLY) {
+            height = MeasureSpec.getSize(heightMeasureSpec);
+        } else if (heightMode == MeasureSpec.AT_MOST) {
+            int atMostHeight = MeasureSpec.getSize(heightMeasureSpec);
+            height = Math.min(atMostHeight, measuredHeight);
+        } else {
+            height = measuredHeight;
+        }
+        searchBiggestChildMeasures();
+        // Log.e(T, "::onMeasure:" + "setMeasuredDimension " + ";width=" + width + ";height=" + height);
+        // Log.e(T, "::onMeasure:" + "setMeasuredDimension " + ";biggestChildWidth=" + biggestChildWidth + ";biggestChildHeight=" + biggestChildHeight);
+        setMeasuredDimension(width, height);
+        computedRowCount = maxRow;
+        pageWidth = width;
+        pageHeight = height;
+        // Log.w(T, "::onMeasure:" + "maxRow="+maxRow);
+        // Log.w(T, "::onMeasure:" + "cellsize="+cellSize);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int[] rects = currentPlan().rects;
+        final View[] views = itemViews;
+        final boolean[] attached = itemAttached;
+        for (int i = 0; i < itemCount; i++) {
+            if (attached[i]) {
+                int c = i * LayoutPlan.STRIDE;
+                views[i].layout(rects[c], rects[c + 1], rects[c + 2], rects[c + 3]);
+            }
+        }
+        laidOut = true;
+
+        if (transition.isCaptured()) {
+            transition.start(itemViews, itemAttached, itemCount, ANIMATION_DURATION);
+        }
+        if (visibilityTracker != null) {
+            updateTileVisibility();
+        }
+        if (onArrangementChangeListener != null) {
+            collectArrangementChanges();
+        }
+        releaseRemovedItems();
+    }
+
+    public MeasureCache getMeasureCache() {
+        return measureCache;
+    }
+
+    /**
+     * Lets {@link MeasureCache.DeterministicTile}s reuse measurements, e.g. from other pages or tabs sharing the same
+     * cache. Off by default.
+     */
+    public void setMeasureCache(MeasureCache cache) {
+        measureCache = cache;
+        requestLayout();
+    }
+
+    /**
+     * Sets the binder for lazily bound tile content, or null to bind nothing lazily. Tiles whose content is not bound
+     * are drawn as placeholders.
+     */
+    public void setTileBinder(TileBinder binder) {
+        if (visibilityTracker != null) {
+            visibilityTracker.unbindAll(itemViews);
+        }
+        visibilityTracker = binder == null ? null : new TileVisibilityTracker(binder);
+        scheduleTileVisibilityUpdate();
+        invalidate();
+    }
+
+    /**
+     * Sets how many rows above and below the visible area are bound ahead of time.
+     */
+    public void setPrefetchRows(int rows) {
+        prefetchRows = rows;
+        scheduleTileVisibilityUpdate();
+    }
+
+    public void setPlaceholderColor(int color) {
+        placeholderPaint.setColor(color);
+        invalidate();
+    }
+
+    private void scheduleTileVisibilityUpdate() {
+        if (visibilityTracker != null && !visibilityUpdatePending) {
+            visibilityUpdatePending = true;
+            post(visibilityUpdate);
+        }
+    }
+
+    /**
+     * Derives the visible rows from this layout's visible rect alone; child positions follow from the grid.
+     */
+    private void updateTileVisibility() {
+        if (visibilityTracker == null || cellSize <= 0) {
+            return;
+        }
+        int fromRow = 0;
+        int toRow = 0;
+        if (getLocalVisibleRect(visibleRect)) {
+            fromRow = (int) Math.floor((visibleRect.top - originY) / cellSize) - prefetchRows;
+            toRow = (int) Math.ceil((visibleRect.bottom - originY) / cellSize) + prefetchRows;
+        }
+        visibilityTracker.update(grid, itemViews, itemCount, fromRow, toRow);
+        invalidate();
+    }
+
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (visibilityTracker != null && !visibilityTracker.isBound(itemOf(child))) {
+            canvas.drawRect(child.getLeft(), child.getTop(), child.getRight(), child.getBottom(), placeholderPaint);
+            return false;
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollListener);
+        removeCallbacks(visibilityUpdate);
+        visibilityUpdatePending = false;
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Diffs the current {@link LayoutParams} against the last reported state and queues the differences for a single
+     * dispatch after this layout pass.
+     */
+    private void collectArrangementChanges() {
+        if (reportedAttached.length < itemCount) {
+            int size = Math.max(itemCount, reportedAttached.length * 2);
+            boolean[] attached = new boolean[size];
+            System.arraycopy(reportedAttached, 0, attached, 0, reportedAttached.length);
+            reportedAttached = attached;
+            int[] ids = new int[size];
+            System.arraycopy(reportedIds, 0, ids, 0, reportedIds.length);
+            reportedIds = ids;
+        }
+        Arrangement.Editor editor = reportedArrangement.edit();
+        for (int i = 0; i < itemCount; i++) {
+            boolean attached = itemAttached[i];
+            boolean wasAttached = reportedAttached[i];
+            if (wasAttached && (!attached || reportedArrangement.getOwner(i) != itemGeneration[i])) {
+                // removed, possibly with the slot already taken over by another view; the removed view may be gone
+                queueChange(new ArrangementChange(ArrangementChange.REMOVED, i, reportedIds[i], reportedArrangement.getLeft(i),
+                        reportedArrangement.getTop(i), reportedArrangement.getCellsWidth(i), reportedArrangement.getCellsHeight(i)));
+                reportedAttached[i] = false;
+                wasAttached = false;
+                if (!attached) {
+                    continue;
+                }
+            }
+            int type = -1;
+            if (attached && !wasAttached) {
+                type = ArrangementChange.ADDED;
+            } else if (attached) {
+                if (reportedArrangement.getCellsWidth(i) != cellWidth[i] || reportedArrangement.getCellsHeight(i) != cellHeight[i]) {
+                    type = ArrangementChange.RESIZED;
+                } else if (reportedArrangement.getLeft(i) != cellLeft[i] || reportedArrangement.getTop(i) != cellTop[i]) {
+                    type = ArrangementChange.MOVED;
+                }
+            }
+            if (type == -1) {
+                continue;
+            }
+            reportedAttached[i] = true;
+            reportedIds[i] = itemViews[i].getId();
+            editor.set(i, itemGeneration[i], cellLeft[i], cellTop[i], cellWidth[i], cellHeight[i]);
+            queueChange(new ArrangementChange(type, i, reportedIds[i], cellLeft[i], cellTop[i], cellWidth[i], cellHeight[i]));
+        }
+        if (editor.isModified()) {
+            reportedArrangement = editor.build();
+        }
+        if (hasPendingChanges() && !changeDispatchPending) {
+            changeDispatchPending = true;
+            post(dispatchChanges);
+        }
+    }
+
+    private void queueChange(ArrangementChange change) {
+        ArrangementChange older = pendingChanges.get(change.getItem());
+        if (older == null) {
+            pendingChanges.put(change.getItem(), change);
+            return;
+        }
+        if (!ArrangementChange.canMerge(older, change)) {
+            pendingReplaced.add(older);
+            pendingChanges.put(change.getItem(), change);
+            return;
+        }
+        ArrangementChange merged = ArrangementChange.merge(older, change);
+        if (merged == null) {
+            pendingChanges.remove(change.getItem());
+        } else {
+            pendingChanges.put(change.getItem(), merged);
+        }
+    }
+
+    private boolean hasPendingChanges() {
+        return pendingChanges.size() > 0 || !pendingReplaced.isEmpty();
+    }
+
+    private void clearPendingChanges() {
+        pendingChanges.clear();
+        pendingReplaced.clear();
+    }
+
+    /**
+     * Registers a listener for tile changes. Children present at registration time are reported as added with the
+     * next layout pass.
+     * 
+     * @see ArrangementPersister
+     */
+    public void setOnArrangementChangeListener(OnArrangementChangeListener listener) {
+        onArrangementChangeListener = listener;
+        // a new listener starts from scratch, and no stale state is kept around while there is none
+        reportedArrangement = Arrangement.EMPTY;
+        reportedAttached = new boolean[0];
+        reportedIds = new int[0];
+        clearPendingChanges();
+        if (listener != null) {
+            requestLayout();
+        }
+    }
+
+    /**
+     * A nested grid is always measured EXACTLY by its parent grid, so changes inside it never change its own size.
+     * Instead of walking up to the root, such requests re-measure and re-layout just this subtree on the next frame.
+     */
+    @Override
+    public void requestLayout() {
+        layoutVersion++;
+        if (isRelayoutBoundary()) {
+            forceLayout();
+            if (!localLayoutPending) {
+                localLayoutPending = true;
+                post(localLayout);
+            }
+            return;
+        }
+        super.requestLayout();
+    }
+
+    /**
+     * @return a plan valid for the current children and metrics: the one published by the planner thread if it is
+     *         still up to date, otherwise one computed right away.
+     */
+    private LayoutPlan currentPlan() {
+        int childCount = itemCount;
+        LayoutPlan ready = readyPlan.getAndSet(null);
+        if (ready != null) {
+            if (ready.count == childCount && ready.matches(layoutVersion, cellSize, originX, originY, spacing)) {
+                sparePlan = plan;
+                plan = ready;
+            } else {
+                sparePlan = ready;
+            }
+        }
+        if (plan == null || plan.count != childCount || !plan.matches(layoutVersion, cellSize, originX, originY, spacing)) {
+            if (plan == null) {
+                plan = obtainPlan();
+            }
+            fillPlanInput(plan);
+            plan.compute();
+        }
+        return plan;
+    }
+
+    /**
+     * Computes the plan for the pending layout pass on the planner thread. Call right after changing the arrangement
+     * and requesting a layout.
+     */
+    private void scheduleLayoutPlan() {
+        if (cellSize <= 0) {
+            return;
+        }
+        LayoutPlan next = obtainPlan();
+        fillPlanInput(next);
+        next.computeAsync(readyPlan);
+    }
+
+    private LayoutPlan obtainPlan() {
+        LayoutPlan next = sparePlan != null ? sparePlan : new LayoutPlan();
+        sparePlan = null;
+        return next;
+    }
+
+    private void fillPlanInput(LayoutPlan target) {
+        target.ensureCapacity(itemCount);
+        target.version = layoutVersion;
+        target.cellSize = cellSize;
+        target.originX = originX;
+        target.originY = originY;
+        target.spacing = spacing;
+        int[] cells = target.cells;
+        for (int i = 0; i < itemCount; i++) {
+            int c = i * LayoutPlan.STRIDE;
+            cells[c] = cellLeft[i];
+            cells[c + 1] = cellTop[i];
+            cells[c + 2] = cellWidth[i];
+            cells[c + 3] = cellHeight[i];
+        }
+    }
+
+    private boolean isRelayoutBoundary() {
+        return laidOut && inheritsCellMetrics() && MeasureSpec.getMode(lastWidthMeasureSpec) == MeasureSpec.EXACTLY
+                && MeasureSpec.getMode(lastHeightMeasureSpec) == MeasureSpec.EXACTLY && !getParent().isLayoutRequested();
+    }
+
+    private boolean inheritsCellMetrics() {
+        return nested && getParent() instanceof CellLayout;
+    }
+
+    public boolean isNested() {
+        return nested;
+    }
+
+    /**
+     * Enables nested mode. A nested grid placed inside another CellLayout uses the parent's cell size and spacing and
+     * has as many columns as cells it spans in the parent.
+     */
+    public void setNested(boolean nested) {
+        if (this.nested != nested) {
+            this.nested = nested;
+            super.requestLayout();
+        }
+    }
+
+    /**
+     * @return the column count in effect, which for nested grids is the number of cells spanned in the parent.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Changes the number of columns. Tiles that no longer fit are moved, in reading order, to the first free spot and
+     * tiles wider than the grid are narrowed to its width. Nested grids take their column count from the parent and
+     * only use this one once they are no longer nested.
+     * 
+     * @param animate whether tiles animate from their current to their new bounds. Tiles are measured and laid out
+     *        once at their new bounds and only their translation and scale are animated.
+     */
+    public void setColumns(int columns, boolean animate) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("columns " + columns);
+        }
+        if (ownColumns == columns) {
+            return;
+        }
+        ownColumns = columns;
+        if (inheritsCellMetrics()) {
+            return;
+        }
+        captureTransition(animate);
+        this.columns = columns;
+        fitToColumns();
+        recordArrangement();
+        requestLayout();
+    }
+
+    public int getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Changes the margin applied to each child. Nested grids take their spacing from the parent and only use this one
+     * once they are no longer nested.
+     * 
+     * @param animate whether tiles animate from their current to their new bounds
+     */
+    public void setSpacing(int spacing, boolean animate) {
+        if (ownSpacing == spacing) {
+            return;
+        }
+        ownSpacing = spacing;
+        if (inheritsCellMetrics()) {
+            return;
+        }
+        captureTransition(animate);
+        this.spacing = spacing;
+        requestLayout();
+        scheduleLayoutPlan();
+    }
+
+    private void captureTransition(boolean animate) {
+        if (animate && laidOut) {
+            transition.capture(itemViews, itemAttached, itemCount);
+        } else {
+            transition.cancel();
+        }
+    }
+
+    /**
+     * Keeps every tile that still fits into the columns in place and moves the others to the first free spot in
+     * reading order.
+     */
+    private void fitToColumns() {
+        grid.setColumns(columns);
+        long[] overflowing = new long[itemCount];
+        int overflowingCount = 0;
+        for (int i = 0; i < itemCount; i++) {
+            if (!itemAttached[i]) {
+                continue;
+            }
+            if (cellLeft[i] + cellWidth[i] <= columns) {
+                grid.add(i, cellLeft[i], cellTop[i], cellWidth[i], cellHeight[i]);
+            } else {
+                overflowing[overflowingCount++] = ((long) cellTop[i] << 42) | ((long) (cellLeft[i] & 0x1FFFFF) << 21) | i;
+            }
+        }
+        Arrays.sort(overflowing, 0, overflowingCount);
+        for (int k = 0; k < overflowingCount; k++) {
+            int item = (int) (overflowing[k] & 0x1FFFFF);
+            int width = Math.min(cellWidth[item], columns);
+            int height = cellHeight[item];
+            // the row below the last occupied one is always free, so the scan ends
+            for (int row = 0;; row++) {
+                int col = 0;
+                while (col + width <= columns && !grid.isFree(col, row, width, height, -1)) {
+                    col++;
+                }
+                if (col + width <= columns) {
+                    storeCellPosition(item, col, row, width, height);
+                    grid.add(item, col, row, width, height);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addView(View child, int index, ViewGroup.LayoutParams params) {
+        super.addView(child, index, params);
+
+        LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp.item < 0 || lp.item >= itemCount || itemViews[lp.item] != child) {
+            lp.item = obtainItem();
+            itemViews[lp.item] = child;
+            itemGeneration[lp.item] = nextGeneration++;
+        }
+        itemParams[lp.item] = lp;
+        // params given with the view win over what was stored for it before
+        storeCellPosition(lp.item, lp.left, lp.top, lp.width, lp.height);
+        itemAttached[lp.item] = child.getParent() == this;
+    }
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        onHierarchyChangeListener = listener;
+    }
+
+    @Override
+    public void bringChildToFront(View child) {
+        super.bringChildToFront(child);
+        childItemsValid = false;
+    }
+
+    /**
+     * @return a released slot or, if there is none, a new one at the end.
+     */
+    private int obtainItem() {
+        while (freeItemCount > 0) {
+            int item = freeItems[--freeItemCount];
+            // slots trimmed off the end and appended again may still be listed
+            if (item < itemCount && itemViews[item] == null) {
+                return item;
+            }
+        }
+        ensureItemCapacity(itemCount + 1);
+        return itemCount++;
+    }
+
+    /**
+     * Frees the slots of children that are still removed, so that neither the views nor their slots are kept alive,
+     * and trims free slots off the end so loops over the slots only cover the current children.
+     */
+    private void releaseRemovedItems() {
+        for (int k = 0; k < removedItemCount; k++) {
+            int item = removedItems[k];
+            if (item >= itemCount || itemAttached[item] || itemViews[item] == null) {
+                continue;
+            }
+            if (visibilityTracker != null) {
+                visibilityTracker.release(item, itemViews[item]);
+            }
+            itemViews[item] = null;
+            itemParams[item] = null;
+            freeItems = push(freeItems, freeItemCount++, item);
+        }
+        removedItemCount = 0;
+        while (itemCount > 0 && itemViews[itemCount - 1] == null) {
+            itemCount--;
+        }
+    }
 
-            LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
+    private static int[] push(int[] stack, int size, int value) {
+        if (size == stack.length) {
+            int[] grown = new int[size * 2];
+            System.arraycopy(stack, 0, grown, 0, size);
+            stack = grown;
+        }
+        stack[size] = value;
+        return stack;
+    }
 
-            int top = layoutParams.top;
-            int w = layoutParams.width;
-            int h = layoutParams.height;
+    private void ensureItemCapacity(int capacity) {
+        if (itemViews.length >= capacity) {
+            return;
+        }
+        int size = Math.max(capacity, itemViews.length * 2);
+        View[] views = new View[size];
+        System.arraycopy(itemViews, 0, views, 0, itemCount);
+        itemViews = views;
+        LayoutParams[] params = new LayoutParams[size];
+        System.arraycopy(itemParams, 0, params, 0, itemCount);
+        itemParams = params;
+        cellLeft = grow(cellLeft, size);
+        cellTop = grow(cellTop, size);
+        cellWidth = grow(cellWidth, size);
+        cellHeight = grow(cellHeight, size);
+        itemGeneration = grow(itemGeneration, size);
+        boolean[] attached = new boolean[size];
+        System.arraycopy(itemAttached, 0, attached, 0, itemCount);
+        itemAttached = attached;
+    }
 
-            int bottom = top + h;
+    private int[] grow(int[] array, int size) {
+        int[] grown = new int[size];
+        System.arraycopy(array, 0, grown, 0, itemCount);
+        return grown;
+    }
 
-            int childWidthSpec = MeasureSpec.makeMeasureSpec((int) (w * cellSize) - spacing * 2, MeasureSpec.EXACTLY);
-            int childHeightSpec = MeasureSpec.makeMeasureSpec((int) (h * cellSize) - spacing * 2, MeasureSpec.EXACTLY);
-            child.measure(childWidthSpec, childHeightSpec);
+    /**
+     * Writes a cell position to the grid state and mirrors it into the view's {@link LayoutParams}.
+     */
+    private void storeCellPosition(int item, int left, int top, int width, int height) {
+        cellLeft[item] = left;
+        cellTop[item] = top;
+        cellWidth[item] = width;
+        cellHeight[item] = height;
+
+        LayoutParams lp = (LayoutParams) itemViews[item].getLayoutParams();
+        lp.left = left;
+        lp.top = top;
+        lp.width = width;
+        lp.height = height;
+    }
 
-            if (bottom > maxRow) {
-                maxRow = bottom;
+    /**
+     * @return item slot per child index.
+     */
+    private int[] childItems() {
+        int childCount = getChildCount();
+        if (!childItemsValid || childItems.length < childCount) {
+            if (childItems.length < childCount) {
+                childItems = new int[Math.max(childCount, childItems.length * 2)];
             }
-
+            for (int i = 0; i < childCount; i++) {
+                childItems[i] = itemOf(getChildAt(i));
+            }
+            childItemsValid = true;
         }
+        return childItems;
+    }
 
-        int measuredHeight = Math.round(maxRow * cellSize) + getPaddingTop() + getPaddingBottom();
-        if (heightMode == MeasureSpec.EXACTLY) {
-            height = MeasureSpec.getSize(heightMeasureSpec);
-        } else if (heightMode == MeasureSpec.AT_MOST) {
-            int atMostHeight = MeasureSpec.getSize(heightMeasureSpec);
-            height = Math.min(atMostHeight, measuredHeight);
-        } else {
-            height = measuredHeight;
+    /**
+     * @return the slot of the child or -1 if it has none.
+     */
+    private int itemOf(View child) {
+        LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        int item = lp.item;
+        if (item >= 0 && item < itemCount && itemViews[item] == child) {
+            if (itemParams[item] != lp) {
+                syncLayoutParams(item);
+            }
+            return item;
         }
-        searchBiggestChildMeasures();
-        // Log.e(T, "::onMeasure:" + "setMeasuredDimension " + ";width=" + width + ";height=" + height);
-        // Log.e(T, "::onMeasure:" + "setMeasuredDimension " + ";biggestChildWidth=" + biggestChildWidth + ";biggestChildHeight=" + biggestChildHeight);
-        setMeasuredDimension(width, height);
-        computedRowCount = maxRow;
-        pageWidth = width;
-        pageHeight = height;
-        // Log.w(T, "::onMeasure:" + "maxRow="+maxRow);
-        // Log.w(T, "::onMeasure:" + "cellsize="+cellSize);
+        // params replaced by an object that does not know the slot
+        for (item = 0; item < itemCount; item++) {
+            if (itemViews[item] == child) {
+                syncLayoutParams(item);
+                return item;
+            }
+        }
+        return -1;
     }
 
-    @Override
-    protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        int childCount = getChildCount();
-
-        View child;
-        for (int i = 0; i < childCount; i++) {
-            child = getChildAt(i);
-
-            LayoutParams layoutParams = (LayoutParams) child.getLayoutParams();
-
-            int top = (int) (layoutParams.top * cellSize) + getPaddingTop() + spacing;
-            int left = (int) (layoutParams.left * cellSize) + getPaddingLeft() + spacing;
-            int right = (int) ((layoutParams.left + layoutParams.width) * cellSize) + getPaddingLeft() - spacing;
-            int bottom = (int) ((layoutParams.top + layoutParams.height) * cellSize) + getPaddingTop() - spacing;
+    /**
+     * Adopts the cell position of a params object the child got through setLayoutParams().
+     */
+    private void syncLayoutParams(int item) {
+        LayoutParams lp = (LayoutParams) itemViews[item].getLayoutParams();
+        lp.item = item;
+        itemParams[item] = lp;
+        storeCellPosition(item, lp.left, lp.top, lp.width, lp.height);
+    }
 
-            child.layout(left, top, right, bottom);
+    /**
+     * Moves or resizes a child. Positions must be changed through the layout, writing {@link LayoutParams} directly
+     * bypasses the grid state.
+     */
+    public void setCellPosition(View child, int left, int top, int cellsWidth, int cellsHeight) {
+        int item = itemOf(child);
+        if (item == -1) {
+            throw new IllegalArgumentException("not a child of this layout: " + child);
         }
+        storeCellPosition(item, left, top, cellsWidth, cellsHeight);
+        requestLayout();
     }
 
     @Override
@@ -225,6 +1105,11 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
          */
         int height = 1;
 
+        /**
+         * Stable slot of the view in the layout's item table, assigned when the view is added.
+         */
+        int item = -1;
+
         public LayoutParams(Context context, AttributeSet attrs) {
             super(context, attrs);
             TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CellLayout);
@@ -245,6 +1130,7 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
                 top = cellLayoutParams.top;
                 height = cellLayoutParams.height;
                 width = cellLayoutParams.width;
+                item = cellLayoutParams.item;
             }
         }
 
@@ -261,47 +1147,206 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     private void searchBiggestChildMeasures() {
         biggestChildWidth = 0;
         biggestChildHeight = 0;
-        for (int index = 0; index < getItemViewCount(); index++) {
-            View child = getChildAt(index);
+        // children are measured EXACTLY, so the sizes can be read from the specs
+        int[] specs = currentPlan().specs;
+        for (int item = 0; item < itemCount; item++) {
+            if (!itemAttached[item]) {
+                continue;
+            }
+            int childWidth = MeasureSpec.getSize(specs[item * 2]);
+            int childHeight = MeasureSpec.getSize(specs[item * 2 + 1]);
 
-            if (biggestChildHeight < child.getMeasuredHeight()) {
-                biggestChildHeight = child.getMeasuredHeight();
+            if (biggestChildHeight < childHeight) {
+                biggestChildHeight = childHeight;
             }
 
-            if (biggestChildWidth < child.getMeasuredWidth()) {
-                biggestChildWidth = child.getMeasuredWidth();
+            if (biggestChildWidth < childWidth) {
+                biggestChildWidth = childWidth;
             }
         }
     }
 
+    /**
+     * Sees every ACTION_DOWN and every following event as long as children are the touch target.
+     */
+    @Override
     public boolean onInterceptTouchEvent(MotionEvent event) {
-        return onTouch(null, event);
+        return handleTouch(event);
     }
 
+    /**
+     * Receives the events once no child took the gesture or once it was intercepted. ACTION_DOWN has always been seen
+     * by {@link #onInterceptTouchEvent(MotionEvent)} already and is only claimed here.
+     */
     @Override
-    public boolean onLongClick(View v) {
-        Log.i(T, ":Touch:onLongClick:" + "" + positionForView(v));
-        if (positionForView(v) != -1) {
-            
-            movingView = true;
-            dragged = positionForView(v);
-            draggedChildPosition  = positionForView(v);
-            draggedView = getChildAt(draggedChildPosition);
-            bringDraggedToFront();
+    public boolean onTouchEvent(MotionEvent event) {
+        if ((event.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+            return true;
+        }
+        handleTouch(event);
+        return true;
+    }
+
+    /**
+     * Resolves the tile under the point with grid math only. A nested grid with a tile under the point drags that tile
+     * itself, so this grid then resolves nothing and only one drag starts per gesture.
+     */
+    @Override
+    public int resolveTarget(float x, float y) {
+        if (cellSize <= 0) {
+            return -1;
+        }
+        int col = (int) Math.floor((x - originX) / cellSize);
+        int row = (int) Math.floor((y - originY) / cellSize);
+        int target = childIndexAtCell(col, row);
+        if (target != -1) {
+            View child = getChildAt(target);
+            if (child instanceof CellLayout
+                    && ((CellLayout) child).resolveTarget(x - child.getLeft(), y - child.getTop()) != -1) {
+                return -1;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * A child that takes over the gesture, e.g. a nested grid that started dragging, ends a pending drag of this grid.
+     */
+    @Override
+    public void requestDisallowInterceptTouchEvent(boolean disallowIntercept) {
+        if (disallowIntercept) {
+            dragDetector.cancel();
+        }
+        super.requestDisallowInterceptTouchEvent(disallowIntercept);
+    }
+
+    private int childIndexAtCell(int col, int row) {
+        int item = grid.itemAt(col, row);
+        if (item == -1 || item >= itemCount) {
+            return -1;
+        }
+        return indexOfChild(itemViews[item]);
+    }
 
-            animateMoveAllItems();
+    @Override
+    public void onDragStart(int target, float x, float y) {
+        Log.i(T, "::onDragStart:" + target);
+        recordArrangement();
+        movingView = true;
+        dragged = target;
+        // a drop without any move frame lands where the drag started
+        lastTouchX = (int) x;
+        lastTouchY = (int) y;
+        draggedChildPosition = target;
+        draggedView = getChildAt(draggedChildPosition);
+        bringDraggedToFront();
+
+        if (dragShadowEnabled) {
+            startDragShadow(getDraggedView(), (int) x, (int) y);
+        }
 
+        animateMoveAllItems();
+
+        if (!dragShadowEnabled) {
             animateDragged();
+        }
 
-            return true;
+        if (getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(true);
         }
+        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+        invalidate();
+    }
 
-        return false;
+    public boolean isDragShadowEnabled() {
+        return dragShadowEnabled;
+    }
+
+    /**
+     * Enables drag shadow mode. The dragged tile is drawn once into a pooled bitmap and only that bitmap moves with the
+     * finger, so complex tiles are neither laid out nor redrawn during the drag.
+     */
+    public void setDragShadowEnabled(boolean enabled) {
+        dragShadowEnabled = enabled;
+        if (!enabled) {
+            shadowPool.clear();
+        }
+    }
+
+    private void startDragShadow(View view, int x, int y) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        // size pooled bitmaps for the biggest tile so that any later drag can reuse them
+        dragShadow = shadowPool.obtain(Math.max(width, biggestChildWidth), Math.max(height, biggestChildHeight));
+        dragShadow.eraseColor(Color.TRANSPARENT);
+        view.clearAnimation();
+        dragShadowCanvas.setBitmap(dragShadow);
+        view.draw(dragShadowCanvas);
+        dragShadowSource.set(0, 0, width, height);
+
+        dragShadowView = view;
+        view.setVisibility(INVISIBLE);
+        moveDragShadow(x, y);
+    }
+
+    private void moveDragShadow(int x, int y) {
+        invalidate(dragShadowBounds.left, dragShadowBounds.top, dragShadowBounds.right, dragShadowBounds.bottom);
+        dragShadowX = x;
+        dragShadowY = y;
+        int halfWidth = (int) (dragShadowSource.width() * DRAG_SCALE / 2);
+        int halfHeight = (int) (dragShadowSource.height() * DRAG_SCALE / 2);
+        dragShadowBounds.set(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+        invalidate(dragShadowBounds.left, dragShadowBounds.top, dragShadowBounds.right, dragShadowBounds.bottom);
+    }
+
+    private void endDragShadow() {
+        if (dragShadow == null) {
+            return;
+        }
+        invalidate(dragShadowBounds.left, dragShadowBounds.top, dragShadowBounds.right, dragShadowBounds.bottom);
+        shadowPool.release(dragShadow);
+        dragShadow = null;
+        dragShadowView.setVisibility(VISIBLE);
+        dragShadowView = null;
     }
 
     @Override
-    public boolean onTouch(View v, MotionEvent event) {
-        // Log.i(T, "::onTouch:" + "");
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (dragShadow != null) {
+            canvas.drawBitmap(dragShadow, dragShadowSource, dragShadowBounds, dragShadowPaint);
+        }
+    }
+
+    /**
+     * Sets how long a tile has to be pressed before it can be dragged. Defaults to the system long press timeout.
+     */
+    public void setDragHoldDuration(long millis) {
+        dragDetector.setHoldDuration(millis);
+    }
+
+    /**
+     * Sets the distance in pixels the finger may travel during the hold before the press is no longer a drag.
+     */
+    public void setDragTouchSlop(int pixels) {
+        dragDetector.setTouchSlop(pixels);
+    }
+
+    /**
+     * Lets a press that leaves the touch slop at least this fast, in pixels per second, start dragging immediately.
+     * 0, the default, disables velocity based starts.
+     */
+    public void setDragStartVelocity(float pixelsPerSecond) {
+        dragDetector.setStartVelocity(pixelsPerSecond);
+    }
+
+    private boolean handleTouch(MotionEvent event) {
+        if (!aViewIsDragged()) {
+            dragDetector.onTouchEvent(event);
+        }
         int action = event.getAction();
         switch (action & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN:
@@ -313,6 +1358,9 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
             case MotionEvent.ACTION_UP:
                 touchUp(event);
                 break;
+            case MotionEvent.ACTION_CANCEL:
+                touchCancel();
+                break;
         }
         if (aViewIsDragged()) return true;
         return false;
@@ -332,27 +1380,46 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     //TODO: have swapping childs done
     private void touchMove(MotionEvent event) {
         if (movingView && aViewIsDragged()) {
-            lastTouchX = (int) event.getX();
-            lastTouchY = (int) event.getY();
-            // Log.i(T, "::touchMove:" + "lastTouchX="+lastTouchX+";lastTouchY="+lastTouchY);
+            dragInput.add(event);
+        }
+    }
 
-            ensureThereIsNoArtifact();
+    /**
+     * Called at most once per frame with the newest drag position. The dragged view follows the predicted position
+     * while the real one is kept for the drop.
+     */
+    @Override
+    public void onDragFrame(int x, int y, int predictedX, int predictedY) {
+        if (!aViewIsDragged()) {
+            return;
+        }
+        lastTouchX = x;
+        lastTouchY = y;
+        // Log.i(T, "::onDragFrame:" + "lastTouchX="+lastTouchX+";lastTouchY="+lastTouchY);
 
-            moveDraggedView(lastTouchX, lastTouchY);
-            manageSwapPosition(lastTouchX, lastTouchY);
-            // manageEdgeCoordinates(lastTouchX);
-            // manageDeleteZoneHover(lastTouchX, lastTouchY);
+        if (dragShadow != null) {
+            moveDragShadow(predictedX, predictedY);
+        } else {
+            ensureThereIsNoArtifact();
+            moveDraggedView(predictedX, predictedY);
         }
+        // manageEdgeCoordinates(lastTouchX);
+        // manageDeleteZoneHover(lastTouchX, lastTouchY);
+    }
+
+    /**
+     * @return the drag input pipeline, e.g. to tune motion prediction or to read how many samples are coalesced per
+     *         frame.
+     */
+    public DragInputPipeline getDragInputPipeline() {
+        return dragInput;
     }
 
     private void touchUp(MotionEvent event) {
-//        View draggedChild = getChildAt(draggedChildPosition);
-//        View swapChild = getChildAt(swapChildPosition);
         Log.i(T, "::touchUp:" + "!aViewIsDragged()="+!aViewIsDragged());
         Log.i(T, "::touchUp:" + "dragged "+dragged);
-        Log.i(T, "::touchUp:" + "draggedChildPosition="+draggedChildPosition+";swapChildPosition="+swapChildPosition);
+        Log.i(T, "::touchUp:" + "draggedChildPosition="+draggedChildPosition);
         Log.i(T, "::touchUp:" + "draggedChild != null "+(draggedView != null));
-//        Log.i(T, "::touchUp:" + "swapChild != null "+(swapView != null));
 
         if (!aViewIsDragged()) {
             
@@ -362,13 +1429,16 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
             // onClickListener.onClick(clickedView);
             // }
         } else {
+            dragInput.flush();
+            dragInput.reset();
             cancelAnimations();
-//            if (swapView != null) {
-//              swapViews(draggedChild, swapChild);
-              swapChildViews(dragged, swapChildPosition);
-              invalidate();
-              requestLayout();
-//          }
+            endDragShadow();
+            if (resolveDrop(getDraggedView(), lastTouchX, lastTouchY)) {
+                recordArrangement();
+            }
+            invalidate();
+            requestLayout();
+            scheduleLayoutPlan();
             // manageChildrenReordering();
             // hideDeleteView();
             // cancelEdgeTimer();
@@ -380,6 +1450,17 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
         }
     }
 
+    private void touchCancel() {
+        if (aViewIsDragged()) {
+            dragInput.reset();
+            cancelAnimations();
+            endDragShadow();
+            movingView = false;
+            dragged = -1;
+            requestLayout();
+        }
+    }
+
     private int positionForView(View v) {
         for (int index = 0; index < getItemViewCount(); index++) {
             View child = getChildView(index);
@@ -449,6 +1530,10 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
 
         for (int i = 0; i < getItemViewCount(); i++) {
             View child = getChildAt(i);
+            if (child == dragShadowView) {
+                // hidden while the shadow is dragged, but an animation would still draw it
+                continue;
+            }
             child.startAnimation(rotateAnimation);
         }
     }
@@ -509,10 +1594,8 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     }
     
     int draggedChildPosition;
-    int swapChildPosition;
     
     View draggedView;
-//    View swapView;
 
     private void moveDraggedView(int x, int y) {
         View childAt = getDraggedView();
@@ -528,36 +1611,16 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
 //        draggedChildPosition = indexOfChild(childAt);
     }
 
-    private void manageSwapPosition(int x, int y) {
-        int positionInPage = getPositionInPage(x, y);
-        swapChildPosition = positionInPage-1;
-//        swapChildPosition = getTargetAtCoor(x, y);
-        if (swapChildPosition < 0) {
-            swapChildPosition = 0;
-        }
-//        else if (swapChildPosition >= getChildCount()) {
-//            swapChildPosition = getChildCount() - 1;
-//        }
-//        swapView = getChildAt(swapChildPosition);
-//        swapView = getNewChildAt(x, y);
-//        int target = positionOfItem(positionInPage);
-//        if (childHasMoved(target) && target != lastTarget) {
-//            animateGap(target, positionInPage);
-//            lastTarget = target;
-//        }
-    }
-    
     private View getNewChildAt(int x, int y) {
         final int count = getChildCount();
+        final int[] childItems = childItems();
         for (int i = 0; i < count; i++) {
-            View child = getChildAt(i);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            int item = childItems[i];
+            int left = cellLeft[item];
+            int top = cellTop[item];
 //            Log.e(T, "::getNewChildAt:" + "x= "+x+";y= "+y);
-            if (i==2) {
-//             Log.e(T, "::getNewChildAt:" + "lp.left "+lp.left+"; lp.top "+lp.top);
-//             Log.e(T, "::getNewChildAt:" + "lp.width "+lp.width+"; lp.height "+lp.height);
-            }            
-            if ((lp.left <= x) && (x <= lp.left + lp.width) && (lp.top >= y) && (y >= lp.top - lp.height)) {
+            if ((left <= x) && (x <= left + cellWidth[item]) && (top >= y) && (y >= top - cellHeight[item])) {
+                View child = getChildAt(i);
                 Log.e(T, "::getNewChildAt:" + "!!! child found at "+positionForView(child));
                 return child;
             }
@@ -582,26 +1645,19 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
     }
 
     private int getColumnOfCoordinate(int x) {
-        int col = 0;
-        for (int i = 1; i <= columns; i++) {
-            int colRightBorder = (int) ((i * cellSize));
-            if (x < colRightBorder) {
-                break;
-            }
-            col++;
+        if (cellSize <= 0) {
+            return 0;
         }
+        int col = Math.min(Math.max(0, (int) (x / cellSize)), columns);
 //        Log.i(T, "::getColumnOfCoordinate:" + "col=" + col);
         return col;
     }
 
     private int getRowOfCoordinate(int y) {
-        int row = 0;
-        for (int i = 1; i <= computedRowCount; i++) {
-            if (y < i * cellSize) {
-                break;
-            }
-            row++;
+        if (cellSize <= 0) {
+            return 0;
         }
+        int row = Math.min(Math.max(0, (int) (y / cellSize)), computedRowCount);
 //        Log.i(T, "::getRowOfCoordinate:" + "row=" + row);
         return row;
     }
@@ -754,62 +1810,54 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
         return translate;
     }
     
-    private void swapChildViews(int childPos1, int childPos2) {
-        Log.e(T, "::swapChildViews:" + "childPos1 "+childPos1 + "; childPos2 "+childPos2);
-//        Log.e(T, "::swapChildViews:" + "getDraggedView "+positionForView(getDraggedView())+ "; swapView "+positionForView(swapView));
-        Log.e(T, "::swapChildViews:" + ""+"/childCount "+getChildCount());
-        View child1 = getDraggedView();
-//        View child1 = getAdjustedChildPosition(childPos1);
-//        View child2 = getChildAt(childPos2);
-        int adjustedChildPosition = getAdjustedChildPosition(childPos2);
-        View child2 = getChildAt(adjustedChildPosition);
-//        View child2 = swapView;
-//        Rect child1Bounds = getViewBounds(child1);
-//        Rect child2Bounds = getViewBounds(child2);
-        removeView(child1);
-        addView(child1, adjustedChildPosition);
-        removeView(child2);
-        addView(child2, childPos1);
-//        child1.setClipBounds(child2Bounds);
-//        child2.setClipBounds(child1Bounds);
-        swapViews(child1, child2);
-    }
-    
-    private void swapViews(View child1, View child2) {
-        LayoutParams child1Params = (LayoutParams) child1.getLayoutParams();
-        LayoutParams child2Params = (LayoutParams) child2.getLayoutParams();
-        LayoutParams tmp = new LayoutParams(child1Params);
+    /**
+     * Drops the view with its center at the given point. Tiles it covers are moved out of the way by the
+     * {@link DropResolver}; if no arrangement is found within the time budget the drop is rejected and every tile
+     * returns to where it was.
+     * 
+     * @return false if the drop was rejected.
+     */
+    private boolean resolveDrop(View view, int x, int y) {
+        if (cellSize <= 0) {
+            return false;
+        }
+        int item = itemOf(view);
+        int width = cellWidth[item];
+        int height = cellHeight[item];
+        int col = Math.round((x - originX) / cellSize - width / 2f);
+        int row = Math.round((y - originY) / cellSize - height / 2f);
+        col = Math.max(0, Math.min(col, columns - width));
+        row = Math.max(0, row);
+
+        if (dropResolver == null || dropResolver.getColumns() != columns) {
+            dropResolver = new DropResolver(columns);
+        }
+        dropResolver.setTimeBudgetNanos(dropTimeBudgetNanos);
+        if (dropLeft.length < itemCount) {
+            dropLeft = new int[itemViews.length];
+            dropTop = new int[itemViews.length];
+        }
+        if (!dropResolver.resolve(cellLeft, cellTop, cellWidth, cellHeight, itemAttached, itemCount, item, col, row, dropLeft, dropTop)) {
+            Log.i(T, "::resolveDrop:" + "rejected after " + dropResolver.getSteps() + " steps");
+            return false;
+        }
 
-        swap(child1Params, child2Params);
-        swap(child2Params, tmp);
-    }
-    
-    private static void swap(LayoutParams dst, LayoutParams src) {
-        dst.width = src.width;
-        dst.height = src.height;
-        dst.top = src.top;
-        dst.left = src.left;
-    }
-    
-    private int getAdjustedChildPosition(int origChildPos) {
-        for (int i = 0; i < getChildCount(); i++) {
-            View child = getChildAt(i);
-            LayoutParams lp = (LayoutParams) child.getLayoutParams();
-//            Log.e(T, "::getNewChildAt:" + "x= "+x+";y= "+y);
-            if (i<origChildPos) {
-               if (lp.width > 1) {
-                   origChildPos = origChildPos - lp.width+1;
-               }
-               if (lp.height > 1) {
-                   origChildPos = origChildPos - lp.height+1;
-               }
-            } else {
-                return i;
+        transition.capture(itemViews, itemAttached, itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            if (itemAttached[i] && (dropLeft[i] != cellLeft[i] || dropTop[i] != cellTop[i])) {
+                storeCellPosition(i, dropLeft[i], dropTop[i], cellWidth[i], cellHeight[i]);
             }
         }
-        return 0;
+        return true;
     }
-    
+
+    /**
+     * Sets how long resolving a drop may take before the drop is rejected.
+     */
+    public void setDropTimeBudget(long nanos) {
+        dropTimeBudgetNanos = nanos;
+    }
+
     private static Rect getViewBounds(View child) {
         return new Rect(child.getLeft(), child.getTop(), child.getRight(), child.getBottom());
     }
@@ -818,5 +1866,232 @@ public class CellLayout extends ViewGroup implements OnTouchListener, OnLongClic
         onClickListener = l;
     }    
 
+    /*------------------ Bulk rearrangement ------------------*/
+
+    /**
+     * Moves every child to the cell position another child currently has, all in one layout pass, and animates the
+     * moved children from their old to their new bounds with a single animator. The result is recorded as a new
+     * history step.
+     * 
+     * @param permutation child {@code i} takes the position of child {@code permutation[i]}; children exchanging
+     *        positions must span the same number of cells
+     * @throws IllegalArgumentException if the array is not a permutation of the child indexes or pairs children of
+     *         different spans
+     */
+    public void applyPermutation(int[] permutation) {
+        int childCount = getChildCount();
+        if (permutation.length != childCount) {
+            throw new IllegalArgumentException("permutation has " + permutation.length + " entries for " + childCount + " children");
+        }
+        int[] childItems = childItems();
+        boolean[] seen = new boolean[childCount];
+        for (int i = 0; i < childCount; i++) {
+            int source = permutation[i];
+            if (source < 0 || source >= childCount || seen[source]) {
+                throw new IllegalArgumentException("not a permutation at index " + i);
+            }
+            seen[source] = true;
+            int item = childItems[i];
+            int sourceItem = childItems[source];
+            if (cellWidth[item] != cellWidth[sourceItem] || cellHeight[item] != cellHeight[sourceItem]) {
+                throw new IllegalArgumentException("child " + i + " and child " + source + " span different cells");
+            }
+        }
+
+        if (permutationLeft.length < childCount) {
+            permutationLeft = new int[childCount];
+            permutationTop = new int[childCount];
+        }
+        for (int i = 0; i < childCount; i++) {
+            int item = childItems[i];
+            permutationLeft[i] = cellLeft[item];
+            permutationTop[i] = cellTop[item];
+        }
+
+        transition.capture(itemViews, itemAttached, itemCount);
+        for (int i = 0; i < childCount; i++) {
+            int item = childItems[i];
+            int source = permutation[i];
+            storeCellPosition(item, permutationLeft[source], permutationTop[source], cellWidth[item], cellHeight[item]);
+        }
+        recordArrangement();
+        requestLayout();
+        scheduleLayoutPlan();
+    }
+
+    /**
+     * Randomly rearranges the children. Children only exchange positions with children of the same span, so the
+     * result never has overlaps the current arrangement does not have.
+     */
+    public void shuffle(Random random) {
+        int childCount = getChildCount();
+        int[] childItems = childItems();
+
+        // counting sort of the children by span, then a Fisher-Yates shuffle inside every span group
+        SparseIntArray groupOfSpan = new SparseIntArray();
+        int[] groups = new int[childCount];
+        int[] groupSizes = new int[childCount + 1];
+        for (int i = 0; i < childCount; i++) {
+            int item = childItems[i];
+            int span = (cellWidth[item] << 16) | (cellHeight[item] & 0xFFFF);
+            int group = groupOfSpan.get(span, -1);
+            if (group == -1) {
+                group = groupOfSpan.size();
+                groupOfSpan.put(span, group);
+            }
+            groups[i] = group;
+            groupSizes[group + 1]++;
+        }
+        for (int g = 1; g <= childCount; g++) {
+            groupSizes[g] += groupSizes[g - 1];
+        }
+        int[] order = new int[childCount];
+        int[] next = groupSizes.clone();
+        for (int i = 0; i < childCount; i++) {
+            order[next[groups[i]]++] = i;
+        }
+        int[] shuffled = order.clone();
+        for (int g = 0; g < groupOfSpan.size(); g++) {
+            int from = groupSizes[g];
+            for (int k = groupSizes[g + 1] - 1; k > from; k--) {
+                int j = from + random.nextInt(k - from + 1);
+                int tmp = shuffled[k];
+                shuffled[k] = shuffled[j];
+                shuffled[j] = tmp;
+            }
+        }
+        int[] permutation = new int[childCount];
+        for (int k = 0; k < childCount; k++) {
+            permutation[order[k]] = shuffled[k];
+        }
+        applyPermutation(permutation);
+    }
+
+    /*------------------ Snapshots ------------------*/
+
+    /**
+     * @return the cell positions of all children, keyed by child ID, for a later {@link #restoreArrangement}.
+     */
+    public ArrangementSnapshot captureArrangement() {
+        int count = 0;
+        for (int item = 0; item < itemCount; item++) {
+            if (itemAttached[item]) {
+                count++;
+            }
+        }
+        int[] ids = new int[count];
+        int[] items = new int[count];
+        int[] cells = new int[count * ArrangementSnapshot.STRIDE];
+        int i = 0;
+        for (int item = 0; item < itemCount; item++) {
+            if (!itemAttached[item]) {
+                continue;
+            }
+            int c = i * ArrangementSnapshot.STRIDE;
+            ids[i] = itemViews[item].getId();
+            items[i] = item;
+            cells[c] = cellLeft[item];
+            cells[c + 1] = cellTop[item];
+            cells[c + 2] = cellWidth[item];
+            cells[c + 3] = cellHeight[item];
+            i++;
+        }
+        return new ArrangementSnapshot(ids, items, cells);
+    }
+
+    /**
+     * Moves the existing children back to the positions stored in the snapshot, all in one layout pass. Children the
+     * snapshot does not know keep their position. The result is recorded as a new history step.
+     * 
+     * @param animate whether children animate from their current to their restored bounds
+     */
+    public void restoreArrangement(ArrangementSnapshot snapshot, boolean animate) {
+        if (animate) {
+            transition.capture(itemViews, itemAttached, itemCount);
+        } else {
+            transition.cancel();
+        }
+        for (int item = 0; item < itemCount; item++) {
+            if (!itemAttached[item]) {
+                continue;
+            }
+            int index = snapshot.find(itemViews[item].getId(), item);
+            if (index >= 0) {
+                storeCellPosition(item, snapshot.getLeft(index), snapshot.getTop(index), snapshot.getCellsWidth(index),
+                        snapshot.getCellsHeight(index));
+            }
+        }
+        recordArrangement();
+        requestLayout();
+        scheduleLayoutPlan();
+    }
+
+    /*------------------ Arrangement history ------------------*/
+
+    public ArrangementHistory getArrangementHistory() {
+        return history;
+    }
+
+    /**
+     * Records the current arrangement as a new history step. Drops are recorded automatically, call this after moving
+     * or resizing children with {@link #setCellPosition(View, int, int, int, int)}.
+     * 
+     * @return true if the arrangement differed from the current history step.
+     */
+    public boolean commitArrangement() {
+        return recordArrangement();
+    }
+
+    public boolean undo() {
+        return applyArrangement(history.undo());
+    }
+
+    public boolean redo() {
+        return applyArrangement(history.redo());
+    }
+
+    /**
+     * Restores the history step with the given index, keeping every other step available.
+     */
+    public boolean jumpToArrangement(int index) {
+        return applyArrangement(history.jumpTo(index));
+    }
+
+    private boolean recordArrangement() {
+        Arrangement.Editor editor = history.current().edit();
+        for (int i = 0; i < itemCount; i++) {
+            editor.set(i, itemGeneration[i], cellLeft[i], cellTop[i], cellWidth[i], cellHeight[i]);
+        }
+        if (!editor.isModified() && !history.isEmpty()) {
+            return false;
+        }
+        history.push(editor.build());
+        return true;
+    }
+
+    /**
+     * Copies the snapshot into the grid state and requests a single layout pass for all of them. Items whose slot now
+     * holds another view than the one the snapshot was taken for keep their position. Steps recorded with more columns
+     * than the grid has now are fitted into the current columns like on {@link #setColumns(int, boolean)}.
+     */
+    private boolean applyArrangement(Arrangement arrangement) {
+        if (arrangement == null) {
+            return false;
+        }
+        int count = Math.min(arrangement.size(), itemCount);
+        for (int i = 0; i < count; i++) {
+            if (!itemAttached[i] || arrangement.getOwner(i) != itemGeneration[i]) {
+                // the view the position was stored for is gone
+                continue;
+            }
+            storeCellPosition(i, arrangement.getLeft(i), arrangement.getTop(i), arrangement.getCellsWidth(i), arrangement.getCellsHeight(i));
+        }
+        fitToColumns();
+        requestLayout();
+        scheduleLayoutPlan();
+        invalidate();
+        return true;
+    }
+
 
 }
@@ -0,0 +1,147 @@
+package com.androidpositive.celllayout;
+
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * Detects the gesture that starts dragging a tile: a press held for {@link #setHoldDuration(long)} without leaving the
+ * touch slop or, optionally, a press that leaves the slop faster than {@link #setStartVelocity(float)}.
+ * <p>
+ * The target is resolved once on {@link MotionEvent#ACTION_DOWN} so that nothing has to be looked up when the hold
+ * timer fires.
+ */
+class DragGestureDetector {
+
+    interface Listener {
+        /**
+         * @return index of the child under the given point or -1 if there is none.
+         */
+        int resolveTarget(float x, float y);
+
+        void onDragStart(int target, float x, float y);
+    }
+
+    private final View host;
+    private final Listener listener;
+
+    private long holdDuration;
+    private int touchSlopSquare;
+    private float startVelocity;
+
+    private boolean pending;
+    private int target = -1;
+    private float downX;
+    private float downY;
+    private float lastX;
+    private float lastY;
+
+    private VelocityTracker velocityTracker;
+
+    private final Runnable holdRunnable = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
+
+    DragGestureDetector(View host, Listener listener) {
+        this.host = host;
+        this.listener = listener;
+        holdDuration = ViewConfiguration.getLongPressTimeout();
+        setTouchSlop(ViewConfiguration.get(host.getContext()).getScaledTouchSlop());
+    }
+
+    public void setHoldDuration(long millis) {
+        holdDuration = millis;
+    }
+
+    public long getHoldDuration() {
+        return holdDuration;
+    }
+
+    public void setTouchSlop(int pixels) {
+        touchSlopSquare = pixels * pixels;
+    }
+
+    /**
+     * @param pixelsPerSecond speed at which leaving the touch slop starts the drag right away, 0 to disable.
+     */
+    public void setStartVelocity(float pixelsPerSecond) {
+        startVelocity = pixelsPerSecond;
+    }
+
+    public float getStartVelocity() {
+        return startVelocity;
+    }
+
+    public void onTouchEvent(MotionEvent event) {
+        switch (event.getAction() & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+                cancel();
+                target = listener.resolveTarget(event.getX(), event.getY());
+                if (target != -1) {
+                    downX = lastX = event.getX();
+                    downY = lastY = event.getY();
+                    pending = true;
+                    if (startVelocity > 0) {
+                        velocityTracker = VelocityTracker.obtain();
+                        velocityTracker.addMovement(event);
+                    }
+                    host.postDelayed(holdRunnable, holdDuration);
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (!pending) {
+                    break;
+                }
+                lastX = event.getX();
+                lastY = event.getY();
+                if (velocityTracker != null) {
+                    velocityTracker.addMovement(event);
+                }
+                float dx = lastX - downX;
+                float dy = lastY - downY;
+                if (dx * dx + dy * dy > touchSlopSquare) {
+                    if (isFastEnough()) {
+                        host.removeCallbacks(holdRunnable);
+                        start();
+                    } else {
+                        cancel();
+                    }
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                cancel();
+                break;
+        }
+    }
+
+    private boolean isFastEnough() {
+        if (velocityTracker == null) {
+            return false;
+        }
+        velocityTracker.computeCurrentVelocity(1000);
+        float vx = velocityTracker.getXVelocity();
+        float vy = velocityTracker.getYVelocity();
+        return vx * vx + vy * vy >= startVelocity * startVelocity;
+    }
+
+    private void start() {
+        int startTarget = target;
+        cancel();
+        listener.onDragStart(startTarget, lastX, lastY);
+    }
+
+    public void cancel() {
+        pending = false;
+        target = -1;
+        host.removeCallbacks(holdRunnable);
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+    }
+}
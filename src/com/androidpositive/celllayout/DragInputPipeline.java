@@ -0,0 +1,198 @@
+package com.androidpositive.celllayout;
+
+import android.support.v4.view.ViewCompat;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Collects drag move samples, historical ones included, and hands them to the layout once per animation frame.
+ * <p>
+ * Touch panels that report faster than the display refreshes deliver several ACTION_MOVE events per frame. Only the
+ * newest sample matters for positioning the dragged tile, so the work per frame is constant. The recent samples are
+ * kept to extrapolate the finger position a little ahead, which hides part of the input latency.
+ */
+public class DragInputPipeline {
+
+    interface Listener {
+        /**
+         * @param x newest reported x coordinate
+         * @param y newest reported y coordinate
+         * @param predictedX x coordinate extrapolated by the prediction horizon
+         * @param predictedY y coordinate extrapolated by the prediction horizon
+         */
+        void onDragFrame(int x, int y, int predictedX, int predictedY);
+    }
+
+    private static final int HISTORY_SIZE = 8;
+
+    /**
+     * Samples older than this relative to the newest one are not used for velocity estimation.
+     */
+    private static final long VELOCITY_WINDOW = 50;
+
+    private final View host;
+    private final Listener listener;
+
+    private final float[] xs = new float[HISTORY_SIZE];
+    private final float[] ys = new float[HISTORY_SIZE];
+    private final long[] times = new long[HISTORY_SIZE];
+    private int head = -1;
+    private int count;
+
+    private long predictionHorizon = 8;
+    private boolean framePending;
+    private int pendingSamples;
+
+    private long frameCount;
+    private long sampleCount;
+    private int lastFrameSamples;
+    private int maxFrameSamples;
+
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (framePending) {
+                processFrame();
+            }
+        }
+    };
+
+    DragInputPipeline(View host, Listener listener) {
+        this.host = host;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues every sample of the event and schedules processing for the next frame.
+     */
+    void add(MotionEvent event) {
+        int historySize = event.getHistorySize();
+        for (int i = 0; i < historySize; i++) {
+            addSample(event.getHistoricalX(i), event.getHistoricalY(i), event.getHistoricalEventTime(i));
+        }
+        addSample(event.getX(), event.getY(), event.getEventTime());
+
+        if (!framePending) {
+            framePending = true;
+            ViewCompat.postOnAnimation(host, frameRunnable);
+        }
+    }
+
+    private void addSample(float x, float y, long time) {
+        head = (head + 1) % HISTORY_SIZE;
+        xs[head] = x;
+        ys[head] = y;
+        times[head] = time;
+        if (count < HISTORY_SIZE) {
+            count++;
+        }
+        pendingSamples++;
+    }
+
+    /**
+     * Processes pending samples right away, e.g. before a drop has to evaluate the final position.
+     */
+    void flush() {
+        if (framePending) {
+            host.removeCallbacks(frameRunnable);
+            processFrame();
+        }
+    }
+
+    /**
+     * Drops all samples, to be called when a drag ends.
+     */
+    void reset() {
+        framePending = false;
+        host.removeCallbacks(frameRunnable);
+        head = -1;
+        count = 0;
+        pendingSamples = 0;
+    }
+
+    private void processFrame() {
+        framePending = false;
+
+        frameCount++;
+        sampleCount += pendingSamples;
+        lastFrameSamples = pendingSamples;
+        if (pendingSamples > maxFrameSamples) {
+            maxFrameSamples = pendingSamples;
+        }
+        pendingSamples = 0;
+
+        float x = xs[head];
+        float y = ys[head];
+        float predictedX = x;
+        float predictedY = y;
+
+        int oldest = oldestSampleInWindow();
+        long dt = times[head] - times[oldest];
+        if (dt > 0 && predictionHorizon > 0) {
+            float factor = (float) predictionHorizon / dt;
+            predictedX += (x - xs[oldest]) * factor;
+            predictedY += (y - ys[oldest]) * factor;
+        }
+
+        listener.onDragFrame((int) x, (int) y, (int) predictedX, (int) predictedY);
+    }
+
+    private int oldestSampleInWindow() {
+        int oldest = head;
+        for (int i = 1; i < count; i++) {
+            int index = (head - i + HISTORY_SIZE) % HISTORY_SIZE;
+            if (times[head] - times[index] > VELOCITY_WINDOW) {
+                break;
+            }
+            oldest = index;
+        }
+        return oldest;
+    }
+
+    /**
+     * Sets how far ahead, in milliseconds, the dragged tile is drawn. 0 disables prediction.
+     */
+    public void setPredictionHorizon(long millis) {
+        predictionHorizon = millis;
+    }
+
+    public long getPredictionHorizon() {
+        return predictionHorizon;
+    }
+
+    /**
+     * @return number of frames in which samples were processed.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return number of samples received, historical ones included.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return number of samples coalesced into the most recent frame.
+     */
+    public int getLastFrameSampleCount() {
+        return lastFrameSamples;
+    }
+
+    public int getMaxFrameSampleCount() {
+        return maxFrameSamples;
+    }
+
+    public float getAverageFrameSampleCount() {
+        return frameCount == 0 ? 0 : (float) sampleCount / frameCount;
+    }
+
+    public void resetStats() {
+        frameCount = 0;
+        sampleCount = 0;
+        lastFrameSamples = 0;
+        maxFrameSamples = 0;
+    }
+}
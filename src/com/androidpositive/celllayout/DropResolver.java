@@ -0,0 +1,210 @@
+package com.androidpositive.celllayout;
+
+import java.util.Arrays;
+
+/**
+ * Finds an overlap free arrangement after dropping one item onto a cell.
+ * <p>
+ * The dropped item is placed at the requested cell and every item it covers is relocated, in reading order. A covered
+ * item goes to the cell the dropped item came from if it fits there, otherwise to the free spot nearest to its old
+ * cell, preferring spots below, then to the right, then to the left and finally above. The search only depends on its
+ * input, so equal input always yields the same arrangement, and it gives up once it exceeds its step or time budget.
+ * <p>
+ * The resolver uses no Android classes and can be exercised on a plain JVM.
+ */
+public class DropResolver {
+
+    public static final int DEFAULT_MAX_STEPS = 200000;
+
+    /**
+     * Default time budget, a quarter of a 60 fps frame.
+     */
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 4000000L;
+
+    private final int columns;
+
+    private int maxSteps = DEFAULT_MAX_STEPS;
+    private long timeBudgetNanos = DEFAULT_TIME_BUDGET_NANOS;
+
+    /**
+     * Owner plus one of every cell, row after row. Grows with the rows in use and is kept between searches; rows from
+     * {@link #rowCount} on are free.
+     */
+    private int[] cells = new int[0];
+    private int rowCount;
+
+    private int steps;
+    private long deadline;
+
+    public DropResolver(int columns) {
+        if (columns < 1) {
+            throw new IllegalArgumentException("columns " + columns);
+        }
+        this.columns = columns;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public void setMaxSteps(int maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @param nanos time after which a search is abandoned, 0 for no limit
+     */
+    public void setTimeBudgetNanos(long nanos) {
+        timeBudgetNanos = nanos;
+    }
+
+    /**
+     * @return the number of cell checks the last search performed.
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Computes the arrangement after dropping {@code dropped} at the given cell.
+     *
+     * @param left column of every item
+     * @param top row of every item
+     * @param width span in columns of every item
+     * @param height span in rows of every item
+     * @param present false for items to ignore
+     * @param count number of items
+     * @param outLeft receives the new column of every item
+     * @param outTop receives the new row of every item
+     * @return false if the drop has to be rejected: the item does not fit at the cell or the budget ran out. The
+     *         output arrays are undefined in that case.
+     */
+    public boolean resolve(int[] left, int[] top, int[] width, int[] height, boolean[] present, int count, int dropped,
+            int col, int row, int[] outLeft, int[] outTop) {
+        steps = 0;
+        deadline = timeBudgetNanos > 0 ? System.nanoTime() + timeBudgetNanos : Long.MAX_VALUE;
+        Arrays.fill(cells, 0, rowCount * columns, 0);
+        rowCount = 0;
+
+        if (col < 0 || row < 0 || col + width[dropped] > columns) {
+            return false;
+        }
+
+        System.arraycopy(left, 0, outLeft, 0, count);
+        System.arraycopy(top, 0, outTop, 0, count);
+        outLeft[dropped] = col;
+        outTop[dropped] = row;
+
+        // everything except the dropped item and the items it covers stays where it is
+        int[] displaced = new int[count];
+        int displacedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!present[i] || i == dropped) {
+                continue;
+            }
+            if (overlaps(left[i], top[i], width[i], height[i], col, row, width[dropped], height[dropped])) {
+                displaced[displacedCount++] = i;
+            } else {
+                mark(i, left[i], top[i], width[i], height[i]);
+            }
+        }
+        mark(dropped, col, row, width[dropped], height[dropped]);
+
+        sortInReadingOrder(displaced, displacedCount, left, top);
+
+        for (int k = 0; k < displacedCount; k++) {
+            int item = displaced[k];
+            int w = width[item];
+            int h = height[item];
+            if (w > columns) {
+                return false;
+            }
+            int[] spot = findSpot(left[item], top[item], w, h, left[dropped], top[dropped]);
+            if (spot == null) {
+                return false;
+            }
+            outLeft[item] = spot[0];
+            outTop[item] = spot[1];
+            mark(item, spot[0], spot[1], w, h);
+        }
+        return true;
+    }
+
+    private int[] findSpot(int fromCol, int fromRow, int w, int h, int vacatedCol, int vacatedRow) {
+        int vacated = isFree(vacatedCol, vacatedRow, w, h);
+        if (vacated != 0) {
+            return vacated > 0 ? new int[] { vacatedCol, vacatedRow } : null;
+        }
+
+        // rings of growing distance around the old cell; the row below all items is always free, so the last ring
+        // reaching it ends the search
+        int maxDistance = Math.max(0, rowCount - fromRow) + columns;
+        for (int d = 1; d <= maxDistance; d++) {
+            for (int dr = d; dr >= -d; dr--) {
+                int dc = d - Math.abs(dr);
+                int free = isFree(fromCol + dc, fromRow + dr, w, h);
+                if (free != 0) {
+                    return free > 0 ? new int[] { fromCol + dc, fromRow + dr } : null;
+                }
+                if (dc != 0) {
+                    free = isFree(fromCol - dc, fromRow + dr, w, h);
+                    if (free != 0) {
+                        return free > 0 ? new int[] { fromCol - dc, fromRow + dr } : null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 1 if the rect is free, 0 if it is not and -1 if the budget ran out.
+     */
+    private int isFree(int col, int row, int w, int h) {
+        if (col < 0 || row < 0 || col + w > columns) {
+            return 0;
+        }
+        if (++steps > maxSteps || ((steps & 0x3F) == 0 && System.nanoTime() > deadline)) {
+            return -1;
+        }
+        int toRow = Math.min(row + h, rowCount);
+        for (int r = row; r < toRow; r++) {
+            int base = r * columns;
+            for (int c = base + col; c < base + col + w; c++) {
+                if (cells[c] != 0) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private void mark(int item, int col, int row, int w, int h) {
+        int fromCol = Math.max(0, col);
+        int toCol = Math.min(columns, col + w);
+        int toRow = row + h;
+        if (toRow * columns > cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(toRow * columns, cells.length * 2));
+        }
+        for (int r = Math.max(0, row); r < toRow; r++) {
+            Arrays.fill(cells, r * columns + fromCol, r * columns + toCol, item + 1);
+        }
+        rowCount = Math.max(rowCount, toRow);
+    }
+
+    private static boolean overlaps(int l1, int t1, int w1, int h1, int l2, int t2, int w2, int h2) {
+        return l1 < l2 + w2 && l2 < l1 + w1 && t1 < t2 + h2 && t2 < t1 + h1;
+    }
+
+    private static void sortInReadingOrder(int[] items, int count, int[] left, int[] top) {
+        long[] keys = new long[count];
+        for (int k = 0; k < count; k++) {
+            int i = items[k];
+            keys[k] = ((long) top[i] << 42) | ((long) (left[i] & 0x1FFFFF) << 21) | i;
+        }
+        Arrays.sort(keys);
+        for (int k = 0; k < count; k++) {
+            items[k] = (int) (keys[k] & 0x1FFFFF);
+        }
+    }
+}
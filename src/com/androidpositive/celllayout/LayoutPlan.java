@@ -0,0 +1,102 @@
+package com.androidpositive.celllayout;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.View.MeasureSpec;
+
+/**
+ * Pixel rects and measure specs of all children of a {@link CellLayout}, packed into int arrays.
+ * <p>
+ * A plan is computed from a copy of the cell positions and the grid metrics, either synchronously or on a shared
+ * background thread, and is only applied by the layout if its {@link #version} still matches.
+ */
+class LayoutPlan {
+    /**
+     * Number of ints per child in {@link #cells} and {@link #rects}.
+     */
+    static final int STRIDE = 4;
+
+    private static HandlerThread thread;
+    private static Handler handler;
+
+    int version;
+    int count;
+
+    float cellSize;
+    int originX;
+    int originY;
+    int spacing;
+
+    /**
+     * Input: left, top, width and height in cells per child index.
+     */
+    int[] cells = new int[0];
+
+    /**
+     * Output: left, top, right and bottom in pixels per child index.
+     */
+    int[] rects = new int[0];
+
+    /**
+     * Output: width and height measure spec per child index.
+     */
+    int[] specs = new int[0];
+
+    void ensureCapacity(int count) {
+        this.count = count;
+        if (cells.length < count * STRIDE) {
+            cells = new int[count * STRIDE];
+            rects = new int[count * STRIDE];
+            specs = new int[count * 2];
+        }
+    }
+
+    boolean matches(int version, float cellSize, int originX, int originY, int spacing) {
+        return this.version == version && this.cellSize == cellSize && this.originX == originX && this.originY == originY
+                && this.spacing == spacing;
+    }
+
+    void compute() {
+        final float size = cellSize;
+        for (int i = 0; i < count; i++) {
+            int c = i * STRIDE;
+            int left = cells[c];
+            int top = cells[c + 1];
+            int width = cells[c + 2];
+            int height = cells[c + 3];
+
+            rects[c] = (int) (left * size) + originX + spacing;
+            rects[c + 1] = (int) (top * size) + originY + spacing;
+            rects[c + 2] = (int) ((left + width) * size) + originX - spacing;
+            rects[c + 3] = (int) ((top + height) * size) + originY - spacing;
+
+            specs[i * 2] = MeasureSpec.makeMeasureSpec((int) (width * size) - spacing * 2, MeasureSpec.EXACTLY);
+            specs[i * 2 + 1] = MeasureSpec.makeMeasureSpec((int) (height * size) - spacing * 2, MeasureSpec.EXACTLY);
+        }
+    }
+
+    /**
+     * Computes the plan on the shared planner thread and publishes it into the given slot once done.
+     */
+    void computeAsync(final AtomicReference<LayoutPlan> ready) {
+        planner().post(new Runnable() {
+            @Override
+            public void run() {
+                compute();
+                ready.set(LayoutPlan.this);
+            }
+        });
+    }
+
+    private static synchronized Handler planner() {
+        if (handler == null) {
+            thread = new HandlerThread(CellLayout.T + "Planner", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+}
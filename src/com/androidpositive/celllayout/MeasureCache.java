@@ -0,0 +1,117 @@
+package com.androidpositive.celllayout;
+
+import android.support.v4.util.LruCache;
+import android.view.View;
+
+/**
+ * Measurements of {@link DeterministicTile}s shared by any number of {@link CellLayout}s, see
+ * {@link CellLayout#setMeasureCache(MeasureCache)}.
+ * <p>
+ * Entries are keyed on tile type and the measure specs a tile gets, which only depend on its span, the cell size and
+ * the spacing. Whenever an entry is present the tile gets the cached size applied instead of being measured, also on
+ * its very first measure, so tiles of a freshly inflated page or tab hit the entries stored by another one. All other
+ * views are always measured. Must only be used from the UI thread.
+ */
+public class MeasureCache {
+
+    /**
+     * A tile whose measured size only depends on its type and the measure specs it gets, never on its content.
+     * <p>
+     * {@code child.measure} is skipped on a hit, also when the tile was just created or requested a layout because
+     * its content changed. {@link #applyCachedMeasure} must therefore leave the tile in the state measuring would: its
+     * measured size set and, for tiles with children, every child measured. The layout pass that follows still lays
+     * the tile out.
+     */
+    public interface DeterministicTile {
+        /**
+         * @return a type shared by all tiles that measure identically.
+         */
+        int getTileType();
+
+        /**
+         * Called instead of {@code measure} with the size another tile of the same type got for the same specs. Sets
+         * it with {@code setMeasuredDimension} and does whatever else {@code onMeasure} does besides computing the
+         * size, such as measuring children against the given specs.
+         */
+        void applyCachedMeasure(int measuredWidth, int measuredHeight, int widthMeasureSpec, int heightMeasureSpec);
+    }
+
+    private final LruCache<Key, int[]> cache;
+
+    /**
+     * Reused for lookups so a hit allocates nothing.
+     */
+    private final Key probe = new Key();
+
+    /**
+     * @param maxSize number of measurements kept before the least recently used one is evicted
+     */
+    public MeasureCache(int maxSize) {
+        cache = new LruCache<Key, int[]>(maxSize);
+    }
+
+    void measure(View child, int widthMeasureSpec, int heightMeasureSpec) {
+        if (!(child instanceof DeterministicTile)) {
+            child.measure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+        DeterministicTile tile = (DeterministicTile) child;
+        probe.set(tile.getTileType(), widthMeasureSpec, heightMeasureSpec);
+        int[] size = cache.get(probe);
+        if (size != null) {
+            tile.applyCachedMeasure(size[0], size[1], widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+        child.measure(widthMeasureSpec, heightMeasureSpec);
+        Key key = new Key();
+        key.set(probe.type, widthMeasureSpec, heightMeasureSpec);
+        cache.put(key, new int[] { child.getMeasuredWidth(), child.getMeasuredHeight() });
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    private static final class Key {
+        int type;
+        int widthMeasureSpec;
+        int heightMeasureSpec;
+
+        void set(int type, int widthMeasureSpec, int heightMeasureSpec) {
+            this.type = type;
+            this.widthMeasureSpec = widthMeasureSpec;
+            this.heightMeasureSpec = heightMeasureSpec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && widthMeasureSpec == other.widthMeasureSpec
+                    && heightMeasureSpec == other.heightMeasureSpec;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type * 31 + widthMeasureSpec) * 31 + heightMeasureSpec;
+        }
+    }
+}
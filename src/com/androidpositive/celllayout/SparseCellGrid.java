@@ -0,0 +1,243 @@
+package com.androidpositive.celllayout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.util.SparseArray;
+
+/**
+ * Cell occupancy of a {@link CellLayout}, stored as chunks of {@link #CHUNK_ROWS} rows held in a sparse map.
+ * <p>
+ * Only chunks that contain at least one occupied cell exist, so memory and the cost of lookups depend on the rows
+ * that are actually used, not on the total row count of the grid.
+ */
+class SparseCellGrid {
+    static final int CHUNK_SHIFT = 4;
+    static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    private static class Chunk {
+        /**
+         * Occupancy bit set per row, {@link SparseCellGrid#words} longs each.
+         */
+        final long[] rows;
+
+        /**
+         * Item occupying each cell plus one, 0 for free cells.
+         */
+        final int[] owners;
+
+        /**
+         * Number of occupied cells in this chunk.
+         */
+        int used;
+
+        Chunk(int columns, int words) {
+            rows = new long[CHUNK_ROWS * words];
+            owners = new int[CHUNK_ROWS * columns];
+        }
+
+        void clear() {
+            Arrays.fill(rows, 0);
+            Arrays.fill(owners, 0);
+            used = 0;
+        }
+    }
+
+    interface ItemVisitor {
+        void visit(int item);
+    }
+
+    private final SparseArray<Chunk> chunks = new SparseArray<Chunk>();
+    private final ArrayList<Chunk> recycled = new ArrayList<Chunk>();
+
+    private int columns;
+    private int words;
+
+    SparseCellGrid(int columns) {
+        setColumns(columns);
+    }
+
+    /**
+     * Changes the column count, dropping all content.
+     */
+    void setColumns(int columns) {
+        this.columns = Math.max(1, columns);
+        words = (this.columns + 63) >> 6;
+        chunks.clear();
+        recycled.clear();
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Frees every cell, keeping the chunks around for reuse.
+     */
+    void clear() {
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.valueAt(i);
+            chunk.clear();
+            recycled.add(chunk);
+        }
+        chunks.clear();
+    }
+
+    /**
+     * Marks the given cells as occupied by the item. Cells outside of the grid columns are ignored.
+     */
+    void add(int item, int left, int top, int width, int height) {
+        fill(item + 1, left, top, width, height);
+    }
+
+    /**
+     * Frees the given cells if they are still owned by the item.
+     */
+    void remove(int item, int left, int top, int width, int height) {
+        fill(-(item + 1), left, top, width, height);
+    }
+
+    /**
+     * @param owner item plus one to occupy cells, its negation to free them
+     */
+    private void fill(int owner, int left, int top, int width, int height) {
+        int fromCol = Math.max(0, left);
+        int toCol = Math.min(columns, left + width);
+        int fromRow = Math.max(0, top);
+        int toRow = top + height;
+        if (fromCol >= toCol || fromRow >= toRow) {
+            return;
+        }
+        for (int row = fromRow; row < toRow; row++) {
+            int key = row >> CHUNK_SHIFT;
+            Chunk chunk = chunks.get(key);
+            if (chunk == null) {
+                if (owner < 0) {
+                    continue;
+                }
+                chunk = obtainChunk();
+                chunks.put(key, chunk);
+            }
+            int rowInChunk = row & CHUNK_MASK;
+            for (int col = fromCol; col < toCol; col++) {
+                int cell = rowInChunk * columns + col;
+                int word = rowInChunk * words + (col >> 6);
+                long bit = 1L << (col & 63);
+                if (owner > 0) {
+                    if ((chunk.rows[word] & bit) == 0) {
+                        chunk.rows[word] |= bit;
+                        chunk.used++;
+                    }
+                    chunk.owners[cell] = owner;
+                } else if (chunk.owners[cell] == -owner) {
+                    chunk.rows[word] &= ~bit;
+                    chunk.owners[cell] = 0;
+                    chunk.used--;
+                }
+            }
+            if (chunk.used == 0) {
+                chunks.remove(key);
+                recycled.add(chunk);
+            }
+        }
+    }
+
+    private Chunk obtainChunk() {
+        int last = recycled.size() - 1;
+        return last >= 0 ? recycled.remove(last) : new Chunk(columns, words);
+    }
+
+    boolean isOccupied(int col, int row) {
+        return itemAt(col, row) != -1;
+    }
+
+    /**
+     * @return the item occupying the cell or -1 if the cell is free.
+     */
+    int itemAt(int col, int row) {
+        if (col < 0 || col >= columns || row < 0) {
+            return -1;
+        }
+        Chunk chunk = chunks.get(row >> CHUNK_SHIFT);
+        if (chunk == null) {
+            return -1;
+        }
+        return chunk.owners[(row & CHUNK_MASK) * columns + col] - 1;
+    }
+
+    /**
+     * @return true if no cell in the rectangle is occupied by an item other than the given one.
+     */
+    boolean isFree(int left, int top, int width, int height, int ignoredItem) {
+        if (left < 0 || top < 0 || left + width > columns) {
+            return false;
+        }
+        for (int row = top; row < top + height; row++) {
+            Chunk chunk = chunks.get(row >> CHUNK_SHIFT);
+            if (chunk == null) {
+                // the rest of the chunk is free as well
+                row |= CHUNK_MASK;
+                continue;
+            }
+            int base = (row & CHUNK_MASK) * columns;
+            for (int col = left; col < left + width; col++) {
+                int owner = chunk.owners[base + col] - 1;
+                if (owner != -1 && owner != ignoredItem) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits the owner of every occupied cell in the given rows. Items spanning several cells are visited once per
+     * cell.
+     */
+    void forEachItemInRows(int fromRow, int toRow, ItemVisitor visitor) {
+        fromRow = Math.max(0, fromRow);
+        for (int key = fromRow >> CHUNK_SHIFT; key <= (toRow - 1) >> CHUNK_SHIFT && toRow > fromRow; key++) {
+            Chunk chunk = chunks.get(key);
+            if (chunk == null) {
+                continue;
+            }
+            int first = Math.max(fromRow, key << CHUNK_SHIFT) & CHUNK_MASK;
+            int last = Math.min(toRow - 1, (key << CHUNK_SHIFT) + CHUNK_MASK) & CHUNK_MASK;
+            for (int cell = first * columns; cell < (last + 1) * columns; cell++) {
+                int owner = chunk.owners[cell];
+                if (owner != 0) {
+                    visitor.visit(owner - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return index of the last occupied row plus one, i.e. the virtual height of the grid in rows.
+     */
+    int getRowCount() {
+        int size = chunks.size();
+        if (size == 0) {
+            return 0;
+        }
+        // keys are sorted, the last chunk holds the bottom most row
+        int key = chunks.keyAt(size - 1);
+        Chunk chunk = chunks.valueAt(size - 1);
+        for (int rowInChunk = CHUNK_ROWS - 1; rowInChunk >= 0; rowInChunk--) {
+            for (int w = 0; w < words; w++) {
+                if (chunk.rows[rowInChunk * words + w] != 0) {
+                    return (key << CHUNK_SHIFT) + rowInChunk + 1;
+                }
+            }
+        }
+        return key << CHUNK_SHIFT;
+    }
+
+    /**
+     * @return number of chunks currently holding occupied cells.
+     */
+    int getChunkCount() {
+        return chunks.size();
+    }
+}
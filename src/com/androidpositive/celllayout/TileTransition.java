@@ -0,0 +1,176 @@
+package com.androidpositive.celllayout;
+
+import android.view.View;
+import android.view.animation.AccelerateDecelerateInterpolator;
+
+import com.nineoldandroids.animation.Animator;
+import com.nineoldandroids.animation.AnimatorListenerAdapter;
+import com.nineoldandroids.animation.ValueAnimator;
+import com.nineoldandroids.view.ViewHelper;
+
+/**
+ * Animates tiles from the bounds they had before an arrangement change to the bounds of the following layout pass.
+ * <p>
+ * Tiles are laid out once at their final bounds. A single animator then moves translation and scale from the old
+ * bounds back to identity, so no tile is measured or laid out again while the animation runs.
+ */
+class TileTransition implements ValueAnimator.AnimatorUpdateListener {
+
+    /**
+     * Bounds before the change: left, top, right and bottom per item.
+     */
+    private int[] from = new int[0];
+    private boolean captured;
+
+    private View[] views;
+    private int[] moved = new int[0];
+    private float[] startX = new float[0];
+    private float[] startY = new float[0];
+    private float[] startScaleX = new float[0];
+    private float[] startScaleY = new float[0];
+    private int movedCount;
+
+    private ValueAnimator animator;
+
+    /**
+     * Records the currently visible bounds of every attached item, settling a running animation first.
+     */
+    void capture(View[] views, boolean[] attached, int count) {
+        if (from.length < count * 4) {
+            from = new int[count * 4];
+        }
+        for (int i = 0; i < count; i++) {
+            if (attached[i]) {
+                View view = views[i];
+                from[i * 4] = view.getLeft();
+                from[i * 4 + 1] = view.getTop();
+                from[i * 4 + 2] = view.getRight();
+                from[i * 4 + 3] = view.getBottom();
+            }
+        }
+        if (isRunning()) {
+            // start from where the running animation currently shows the tiles
+            float fraction = animator.getAnimatedFraction();
+            for (int k = 0; k < movedCount; k++) {
+                int c = moved[k] * 4;
+                if (c >= from.length) {
+                    continue;
+                }
+                int left = from[c] + (int) (startX[k] * (1 - fraction));
+                int top = from[c + 1] + (int) (startY[k] * (1 - fraction));
+                float scaleX = startScaleX[k] + (1 - startScaleX[k]) * fraction;
+                float scaleY = startScaleY[k] + (1 - startScaleY[k]) * fraction;
+                from[c + 2] = left + (int) ((from[c + 2] - from[c]) * scaleX);
+                from[c + 3] = top + (int) ((from[c + 3] - from[c + 1]) * scaleY);
+                from[c] = left;
+                from[c + 1] = top;
+            }
+        }
+        cancel();
+        captured = true;
+    }
+
+    boolean isCaptured() {
+        return captured;
+    }
+
+    /**
+     * Starts animating every attached item whose current bounds differ from the captured ones. Must be called after
+     * the items were laid out at their new bounds.
+     */
+    void start(View[] views, boolean[] attached, int count, long duration) {
+        if (!captured) {
+            return;
+        }
+        captured = false;
+        this.views = views;
+        if (moved.length < count) {
+            moved = new int[count];
+            startX = new float[count];
+            startY = new float[count];
+            startScaleX = new float[count];
+            startScaleY = new float[count];
+        }
+        movedCount = 0;
+        for (int i = 0; i < count && i * 4 < from.length; i++) {
+            if (!attached[i]) {
+                continue;
+            }
+            View view = views[i];
+            int width = view.getWidth();
+            int height = view.getHeight();
+            int dx = from[i * 4] - view.getLeft();
+            int dy = from[i * 4 + 1] - view.getTop();
+            int fromWidth = from[i * 4 + 2] - from[i * 4];
+            int fromHeight = from[i * 4 + 3] - from[i * 4 + 1];
+            if (dx == 0 && dy == 0 && fromWidth == width && fromHeight == height) {
+                continue;
+            }
+            moved[movedCount] = i;
+            startX[movedCount] = dx;
+            startY[movedCount] = dy;
+            startScaleX[movedCount] = width > 0 ? (float) fromWidth / width : 1;
+            startScaleY[movedCount] = height > 0 ? (float) fromHeight / height : 1;
+            ViewHelper.setPivotX(view, 0);
+            ViewHelper.setPivotY(view, 0);
+            movedCount++;
+        }
+        if (movedCount == 0) {
+            return;
+        }
+        if (animator == null) {
+            animator = ValueAnimator.ofFloat(0f, 1f);
+            animator.setInterpolator(new AccelerateDecelerateInterpolator());
+            animator.addUpdateListener(this);
+            animator.addListener(new AnimatorListenerAdapter() {
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    reset();
+                }
+            });
+        }
+        animator.setDuration(duration);
+        apply(0);
+        animator.start();
+    }
+
+    @Override
+    public void onAnimationUpdate(ValueAnimator animation) {
+        apply(animation.getAnimatedFraction());
+    }
+
+    private void apply(float fraction) {
+        for (int k = 0; k < movedCount; k++) {
+            View view = views[moved[k]];
+            if (view == null) {
+                // removed while animating
+                continue;
+            }
+            ViewHelper.setTranslationX(view, startX[k] * (1 - fraction));
+            ViewHelper.setTranslationY(view, startY[k] * (1 - fraction));
+            ViewHelper.setScaleX(view, startScaleX[k] + (1 - startScaleX[k]) * fraction);
+            ViewHelper.setScaleY(view, startScaleY[k] + (1 - startScaleY[k]) * fraction);
+        }
+    }
+
+    boolean isRunning() {
+        return animator != null && animator.isRunning();
+    }
+
+    /**
+     * Stops a running animation and puts every tile at its laid out bounds.
+     */
+    void cancel() {
+        captured = false;
+        if (isRunning()) {
+            animator.cancel();
+        }
+        reset();
+    }
+
+    private void reset() {
+        apply(1);
+        movedCount = 0;
+        views = null;
+    }
+}
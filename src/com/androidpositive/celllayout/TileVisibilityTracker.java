@@ -0,0 +1,114 @@
+package com.androidpositive.celllayout;
+
+import android.view.View;
+
+/**
+ * Keeps track of which items intersect the visible rows of a {@link CellLayout} and binds or unbinds their content
+ * through a {@link CellLayout.TileBinder} as they enter or leave that window.
+ */
+class TileVisibilityTracker implements SparseCellGrid.ItemVisitor {
+
+    private final CellLayout.TileBinder binder;
+
+    /**
+     * Pass number in which each item was last seen inside the window, indexed by item.
+     */
+    private int[] seen = new int[0];
+    private boolean[] bound = new boolean[0];
+
+    /**
+     * Bound items, unordered.
+     */
+    private int[] boundItems = new int[16];
+    private int boundCount;
+
+    private int pass;
+    private View[] views;
+
+    TileVisibilityTracker(CellLayout.TileBinder binder) {
+        this.binder = binder;
+    }
+
+    /**
+     * Binds every item occupying a cell in the given rows and unbinds every bound item that does not.
+     */
+    void update(SparseCellGrid grid, View[] views, int count, int fromRow, int toRow) {
+        this.views = views;
+        ensureCapacity(count);
+        pass++;
+        grid.forEachItemInRows(fromRow, toRow, this);
+
+        for (int i = boundCount - 1; i >= 0; i--) {
+            int item = boundItems[i];
+            if (seen[item] != pass) {
+                bound[item] = false;
+                boundItems[i] = boundItems[--boundCount];
+                binder.onUnbindTile(views[item]);
+            }
+        }
+        this.views = null;
+    }
+
+    @Override
+    public void visit(int item) {
+        if (item >= seen.length || seen[item] == pass) {
+            return;
+        }
+        seen[item] = pass;
+        if (!bound[item]) {
+            bound[item] = true;
+            if (boundCount == boundItems.length) {
+                int[] grown = new int[boundCount * 2];
+                System.arraycopy(boundItems, 0, grown, 0, boundCount);
+                boundItems = grown;
+            }
+            boundItems[boundCount++] = item;
+            binder.onBindTile(views[item]);
+        }
+    }
+
+    boolean isBound(int item) {
+        return item < bound.length && bound[item];
+    }
+
+    /**
+     * Unbinds every bound item.
+     */
+    void unbindAll(View[] views) {
+        for (int i = 0; i < boundCount; i++) {
+            int item = boundItems[i];
+            bound[item] = false;
+            binder.onUnbindTile(views[item]);
+        }
+        boundCount = 0;
+    }
+
+    /**
+     * Unbinds the item if it is bound, before its slot is reused for another view.
+     */
+    void release(int item, View view) {
+        if (!isBound(item)) {
+            return;
+        }
+        bound[item] = false;
+        for (int i = 0; i < boundCount; i++) {
+            if (boundItems[i] == item) {
+                boundItems[i] = boundItems[--boundCount];
+                break;
+            }
+        }
+        binder.onUnbindTile(view);
+    }
+
+    private void ensureCapacity(int size) {
+        if (seen.length < size) {
+            int capacity = Math.max(size, seen.length * 2);
+            int[] newSeen = new int[capacity];
+            System.arraycopy(seen, 0, newSeen, 0, seen.length);
+            seen = newSeen;
+            boolean[] newBound = new boolean[capacity];
+            System.arraycopy(bound, 0, newBound, 0, bound.length);
+            bound = newBound;
+        }
+    }
+}
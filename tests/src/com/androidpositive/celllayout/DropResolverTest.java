@@ -0,0 +1,104 @@
+package com.androidpositive.celllayout;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the resolver on the arrangement of the demo layout. Needs no device, {@link DropResolver} uses no Android
+ * classes.
+ */
+public class DropResolverTest extends TestCase {
+
+    private static final int COLUMNS = 4;
+
+    private static final int[] LEFT = { 0, 1, 2, 3, 0, 1, 2, 3, 0, 3, 0, 1, 2, 3, 3 };
+    private static final int[] TOP = { 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 4, 4, 4, 4, 5 };
+    private static final int[] WIDTH = { 1, 1, 1, 1, 1, 1, 1, 1, 3, 1, 1, 1, 1, 1, 1 };
+    private static final int[] HEIGHT = { 1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 3, 3, 3, 1, 1 };
+
+    /**
+     * The 3x2 tile.
+     */
+    private static final int WIDE = 8;
+
+    private DropResolver resolver;
+    private boolean[] present;
+    private int[] outLeft;
+    private int[] outTop;
+
+    @Override
+    protected void setUp() {
+        resolver = new DropResolver(COLUMNS);
+        resolver.setTimeBudgetNanos(0);
+        present = new boolean[LEFT.length];
+        Arrays.fill(present, true);
+        outLeft = new int[LEFT.length];
+        outTop = new int[LEFT.length];
+    }
+
+    public void testWideTileDroppedOntoSmallTile() {
+        assertTrue(drop(WIDE, 0, 0));
+        assertEquals(0, outLeft[WIDE]);
+        assertEquals(0, outTop[WIDE]);
+        assertNoOverlaps();
+    }
+
+    public void testCoveredTileTakesVacatedSpot() {
+        assertTrue(drop(WIDE, 0, 0));
+        // first covered tile in reading order
+        assertEquals(LEFT[WIDE], outLeft[0]);
+        assertEquals(TOP[WIDE], outTop[0]);
+
+        assertTrue(drop(WIDE, 1, 2));
+        // the 1x2 tile next to the wide one
+        assertEquals(LEFT[WIDE], outLeft[9]);
+        assertEquals(TOP[WIDE], outTop[9]);
+        assertNoOverlaps();
+    }
+
+    public void testUncoveredTilesStay() {
+        assertTrue(drop(WIDE, 0, 0));
+        for (int i = 10; i < LEFT.length; i++) {
+            assertEquals(LEFT[i], outLeft[i]);
+            assertEquals(TOP[i], outTop[i]);
+        }
+    }
+
+    public void testRejectedWhenBudgetRunsOut() {
+        resolver.setMaxSteps(1);
+        assertFalse(drop(WIDE, 0, 0));
+
+        resolver.setMaxSteps(DropResolver.DEFAULT_MAX_STEPS);
+        assertTrue(drop(WIDE, 0, 0));
+    }
+
+    public void testRejectedOutsideGrid() {
+        assertFalse(drop(WIDE, 2, 0));
+        assertFalse(drop(WIDE, -1, 0));
+    }
+
+    public void testSameInputSameArrangement() {
+        assertTrue(drop(0, 3, 3));
+        int[] firstLeft = outLeft.clone();
+        int[] firstTop = outTop.clone();
+        assertTrue(drop(0, 3, 3));
+        assertTrue(Arrays.equals(firstLeft, outLeft));
+        assertTrue(Arrays.equals(firstTop, outTop));
+    }
+
+    private boolean drop(int item, int col, int row) {
+        return resolver.resolve(LEFT, TOP, WIDTH, HEIGHT, present, LEFT.length, item, col, row, outLeft, outTop);
+    }
+
+    private void assertNoOverlaps() {
+        for (int i = 0; i < LEFT.length; i++) {
+            assertTrue(outLeft[i] >= 0 && outTop[i] >= 0 && outLeft[i] + WIDTH[i] <= COLUMNS);
+            for (int j = i + 1; j < LEFT.length; j++) {
+                boolean overlap = outLeft[i] < outLeft[j] + WIDTH[j] && outLeft[j] < outLeft[i] + WIDTH[i]
+                        && outTop[i] < outTop[j] + HEIGHT[j] && outTop[j] < outTop[i] + HEIGHT[i];
+                assertFalse("tiles " + i + " and " + j + " overlap", overlap);
+            }
+        }
+    }
+}